@@ -0,0 +1,73 @@
+package com.server;
+
+import com.server.storage.BenchmarkDatabases;
+import com.server.storage.MessageDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares verifying credentials against the stored password hash with verifying them through the credential cache,
+ * which is what every authenticated request pays after the first one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthenticationBenchmark {
+
+    private static final String USERNAME = "benchmark";
+    private static final String PASSWORD = "correct horse battery staple";
+
+    private File file;
+    private MessageDatabase database;
+    private UserAuthenticator authenticator;
+    private TokenService tokens;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = BenchmarkDatabases.create(0);
+        database = new MessageDatabase(file.getPath(), 1);
+        authenticator = new UserAuthenticator(database);
+        authenticator.register(USERNAME, PASSWORD, "benchmark@example.com");
+        tokens = new TokenService(null, TimeUnit.HOURS.toMillis(1));
+        token = tokens.issue(USERNAME);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public boolean uncached() {
+        return database.checkCredentials(USERNAME, PASSWORD);
+    }
+
+    @Benchmark
+    public boolean cached() {
+        return authenticator.checkCredentials(USERNAME, PASSWORD);
+    }
+
+    @Benchmark
+    public String bearerToken() {
+        return tokens.verify(token);
+    }
+
+}
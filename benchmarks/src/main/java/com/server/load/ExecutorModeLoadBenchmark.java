@@ -0,0 +1,97 @@
+package com.server.load;
+
+import com.server.AdmissionFilter;
+import com.server.ServerExecutors;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpServer;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.server.util.ResponseUtil.sendResponse;
+
+/**
+ * Compares throughput and latency of the executor modes in {@link ServerExecutors} under a connection spike.
+ * <p>
+ * Each mode serves a plain HTTP server whose handler blocks for a while, standing in for the SQLite and weather I/O
+ * of the real handlers. Run it after {@code mvn install -DskipTests}:
+ * {@code java -cp benchmarks/target/benchmarks.jar com.server.load.ExecutorModeLoadBenchmark [requests] [concurrency] [handlerMs]}
+ */
+public class ExecutorModeLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int handlerMs = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%d requests, %d concurrent, handler blocks for %d ms%n", requests, concurrency, handlerMs);
+        System.out.printf("%-8s %10s %9s %9s %9s %7s %7s%n", "mode", "req/s", "p50 ms", "p99 ms", "max ms", "503", "errors");
+        for (String mode : new String[]{"cached", "virtual", "bounded"}) {
+            run(mode, ServerExecutors.create(mode, cores * 8, cores * 64), requests, concurrency, handlerMs);
+        }
+    }
+
+    private static void run(String mode, ExecutorService executor, int requests, int concurrency, int handlerMs) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        HttpContext context = server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(handlerMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sendResponse(exchange, 200, "ok");
+        });
+        context.getFilters().add(new AdmissionFilter());
+        server.setExecutor(executor);
+        server.start();
+
+        URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        long[] latencies = new long[requests];
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        Semaphore inFlight = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(requests);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            inFlight.acquire();
+            long sent = System.nanoTime();
+            client.sendAsync(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        latencies[completed.getAndIncrement()] = System.nanoTime() - sent;
+                        if (error != null) {
+                            errors.incrementAndGet();
+                        } else if (response.statusCode() == 503) {
+                            rejected.incrementAndGet();
+                        }
+                        inFlight.release();
+                        done.countDown();
+                    });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        server.stop(0);
+        executor.shutdownNow();
+
+        Arrays.sort(latencies);
+        System.out.printf("%-8s %10.0f %9.1f %9.1f %9.1f %7d %7d%n", mode,
+                requests * 1e9 / elapsed,
+                latencies[requests / 2] / 1e6,
+                latencies[(int) (requests * 0.99)] / 1e6,
+                latencies[requests - 1] / 1e6,
+                rejected.get(), errors.get());
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.server.load;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe latency histogram with logarithmic buckets.
+ * <p>
+ * Values are recorded in microseconds. Each power of two is split into 8 linear sub-buckets,
+ * so reported percentiles are at most 12.5% above the true value, with constant memory for any range.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(indexOf(micros));
+        count.increment();
+        sum.add(micros);
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    double meanMs() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / 1000.0 / n;
+    }
+
+    double maxMs() {
+        return max.get() / 1000.0;
+    }
+
+    /**
+     * {@return the latency in milliseconds below which the given fraction of the recorded values fall}
+     *
+     * @param fraction the fraction, eg. 0.99 for the 99th percentile
+     */
+    double percentileMs(double fraction) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(lowerBound(i + 1) - 1, max.get()) / 1000.0;
+            }
+        }
+        return maxMs();
+    }
+
+    /**
+     * Prints the distribution with one row per power of two milliseconds.
+     */
+    void printDistribution(PrintStream out) {
+        long n = count.sum();
+        if (n == 0) {
+            return;
+        }
+        // Below 1 ms, then [1, 2) ms, [2, 4) ms and so on
+        long[] rows = new long[64];
+        int last = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            if (c == 0) {
+                continue;
+            }
+            long ms = lowerBound(i) / 1000;
+            int row = ms == 0 ? 0 : 64 - Long.numberOfLeadingZeros(ms);
+            rows[row] += c;
+            last = Math.max(last, row);
+        }
+        for (int row = 0; row <= last; row++) {
+            String label = row == 0 ? "< 1 ms" : (1L << (row - 1)) + "-" + (1L << row) + " ms";
+            int bar = (int) Math.round(rows[row] * 50.0 / n);
+            out.printf("  %14s %9d %6.2f%% %s%n", label, rows[row], rows[row] * 100.0 / n, "#".repeat(bar));
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+}
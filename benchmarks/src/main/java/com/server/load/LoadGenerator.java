@@ -0,0 +1,478 @@
+package com.server.load;
+
+import com.server.Server;
+import com.server.util.TimeUtil;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An end-to-end HTTPS load generator for the server.
+ * <p>
+ * By default it generates a test keystore, starts a {@link WeatherStub} and the {@link Server} in this JVM
+ * with a fresh database, and then runs a fixed amount of virtual users against {@code /warning} and {@code /registration}.
+ * Each virtual user registers, then sends requests back to back, picking each request from a weighted mix.
+ * Throughput, latency percentiles, a latency histogram and error rates are reported per operation at the end.
+ * <p>
+ * Options are given as {@code name=value} arguments:
+ * <ul>
+ *     <li>{@code users} the amount of concurrent virtual users (32)</li>
+ *     <li>{@code duration} and {@code warmup} the measured and discarded run time in seconds (60, 10)</li>
+ *     <li>{@code mix} the weights of the operations, eg. {@code register:1,submit:40,update:10,user:15,time:15,area:19,all:0}</li>
+ *     <li>{@code weatherFraction} the fraction of submissions and updates asking for weather (0.5)</li>
+ *     <li>{@code weatherLatency} and {@code weatherJitter} the delay of the weather stub in milliseconds (50, 20)</li>
+ *     <li>{@code target} the URL of an already running server, eg. {@code https://localhost:8001},
+ *     in which case no server is started and the weather stub listens on {@code weatherPort} (4001)</li>
+ *     <li>{@code keystore} and {@code password} the JKS keystore of the server, which the client also trusts (generated)</li>
+ * </ul>
+ * Run it after {@code mvn install -DskipTests}:
+ * {@code java -cp benchmarks/target/benchmarks.jar com.server.load.LoadGenerator users=64 duration=120}
+ */
+public final class LoadGenerator {
+
+    private static final double MIN_LATITUDE = 60;
+    private static final double MIN_LONGITUDE = 21;
+    private static final String[] DANGER_TYPES = {"Deer", "Reindeer", "Moose", "Other"};
+
+    private final Map<String, String> options;
+    private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+    private final int totalWeight;
+    private final double weatherFraction;
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicInteger registrations = new AtomicInteger();
+    private HttpClient client;
+    private URI warning;
+    private URI registration;
+    private volatile Stats stats = new Stats();
+    private volatile boolean running = true;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        for (String weight : option("mix", "register:1,submit:40,update:10,user:15,time:15,area:19,all:0").split(",")) {
+            String[] parts = weight.split(":");
+            mix.put(Operation.byName(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+        this.totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        if (totalWeight <= 0) {
+            throw new IllegalArgumentException("The mix must have at least one positive weight");
+        }
+        this.weatherFraction = Double.parseDouble(option("weatherFraction", "0.5"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                System.err.println("Invalid option " + arg + ", expected name=value");
+                System.exit(2);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new LoadGenerator(options).run();
+        // Runs the shutdown hook of the server, which closes the database
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        int users = Integer.parseInt(option("users", "32"));
+        long durationSeconds = Long.parseLong(option("duration", "60"));
+        long warmupSeconds = Long.parseLong(option("warmup", "10"));
+        long weatherLatency = Long.parseLong(option("weatherLatency", "50"));
+        long weatherJitter = Long.parseLong(option("weatherJitter", "20"));
+
+        Path workDir = Files.createTempDirectory("load");
+        String password = option("password", "password");
+        Path keystore = options.containsKey("keystore") ? Path.of(options.get("keystore")) : generateKeystore(workDir, password);
+
+        String target = options.get("target");
+        int weatherPort = target == null ? freePort() : Integer.parseInt(option("weatherPort", "4001"));
+        if (target == null) {
+            // Before the stub, so that the server is the first to configure the JDK HTTP server
+            target = startServer(workDir, keystore, password, "http://127.0.0.1:" + weatherPort + "/weather");
+        }
+        WeatherStub weather = new WeatherStub(weatherPort, weatherLatency, weatherJitter);
+        weather.start();
+
+        warning = URI.create(target + "/warning");
+        registration = URI.create(target + "/registration");
+        client = HttpClient.newBuilder()
+                .sslContext(clientSSLContext(keystore, password))
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        System.out.printf("%d virtual users against %s for %d s after %d s of warmup, weather latency %d+%d ms%n",
+                users, target, durationSeconds, warmupSeconds, weatherLatency, weatherJitter);
+        System.out.println("Mix: " + mix);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            Thread thread = new Thread(new VirtualUser(i), "user-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+        // Start measuring from a clean slate, requests still in flight record into the discarded stats
+        Stats measured = new Stats();
+        stats = measured;
+        long start = System.nanoTime();
+        for (long elapsed = 0; elapsed < durationSeconds; elapsed += 5) {
+            TimeUnit.SECONDS.sleep(Math.min(5, durationSeconds - elapsed));
+            System.out.printf("  %4d s %8.0f req/s%n", Math.min(elapsed + 5, durationSeconds),
+                    measured.total.count() / ((System.nanoTime() - start) / 1e9));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        running = false;
+        stats = new Stats();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(15));
+        }
+
+        measured.print(seconds);
+        System.out.println("Weather stub received " + weather.requests() + " requests");
+        weather.stop();
+    }
+
+    private String startServer(Path workDir, Path keystore, String password, String weatherUrl) throws Exception {
+        int port = freePort();
+        // Read by the server configuration when its classes are first used
+        System.setProperty("server.port", Integer.toString(port));
+        System.setProperty("db.path", workDir.resolve("load.db").toString());
+        System.setProperty("weather.url", weatherUrl);
+        // Every virtual user comes from the same address, so the address limit would measure itself instead of the server
+        if (System.getProperty("ratelimit.address.perSecond") == null) {
+            System.setProperty("ratelimit.address.perSecond", "0");
+        }
+        Server.main(new String[]{keystore.toString(), password});
+
+        // Server.main reports startup errors instead of throwing them
+        try (Socket socket = new Socket("localhost", port)) {
+            return "https://localhost:" + port;
+        } catch (IOException e) {
+            throw new IllegalStateException("Server did not start", e);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Path generateKeystore(Path workDir, String password) throws IOException, InterruptedException {
+        Path keystore = workDir.resolve("keystore.jks");
+        Process keytool = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "server", "-keyalg", "RSA", "-keysize", "2048", "-validity", "7",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+                "-storetype", "JKS", "-keystore", keystore.toString(), "-storepass", password, "-keypass", password)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        if (keytool.waitFor() != 0) {
+            throw new IllegalStateException("keytool failed with exit code " + keytool.exitValue());
+        }
+        return keystore;
+    }
+
+    private static SSLContext clientSSLContext(Path keystore, String password) throws Exception {
+        KeyStore ks = KeyStore.getInstance("JKS");
+        try (InputStream in = new FileInputStream(keystore.toFile())) {
+            ks.load(in, password.toCharArray());
+        }
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(ks);
+        SSLContext ssl = SSLContext.getInstance("TLS");
+        ssl.init(null, tmf.getTrustManagers(), null);
+        return ssl;
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private Operation pick() {
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            value -= entry.getValue();
+            if (value < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private enum Operation {
+        REGISTER("register"),
+        SUBMIT("submit"),
+        UPDATE("update"),
+        QUERY_USER("user"),
+        QUERY_TIME("time"),
+        QUERY_AREA("area"),
+        GET_ALL("all");
+
+        private final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        static Operation byName(String name) {
+            for (Operation operation : values()) {
+                if (operation.label.equals(name)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation " + name);
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * A closed-loop client with its own account and messages, sending the next request as soon as the previous one completes.
+     */
+    private class VirtualUser implements Runnable {
+
+        private final String username;
+        private final String authorization;
+        private final List<Integer> ownMessages = new ArrayList<>();
+
+        private VirtualUser(int index) {
+            this.username = "load-" + runId + "-" + index;
+            this.authorization = basic(username, "secret");
+        }
+
+        @Override
+        public void run() {
+            try {
+                // Not measured: the account and a message to update
+                HttpResponse<String> registered = null;
+                for (int attempt = 0; attempt < 3 && registered == null; attempt++) {
+                    // A connection closed by the server fails the request, but the retry may find the user already registered
+                    registered = send(Operation.REGISTER, post(registration, registrationBody(username), null), null);
+                }
+                if (registered == null) {
+                    throw new IOException("Registration failed");
+                }
+                send(Operation.SUBMIT, post(warning, messageBody(null), authorization), null);
+                HttpResponse<String> own = send(Operation.QUERY_USER,
+                        post(warning, new JSONObject().put("query", "user").put("nickname", username).toString(), authorization), null);
+                if (own != null && own.statusCode() == 200) {
+                    JSONArray messages = new JSONArray(own.body());
+                    for (int i = 0; i < messages.length(); i++) {
+                        ownMessages.add(messages.getJSONObject(i).getInt("id"));
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println(username + " could not be set up: " + e);
+                return;
+            }
+
+            while (running) {
+                Operation operation = pick();
+                if (operation == Operation.UPDATE && ownMessages.isEmpty()) {
+                    operation = Operation.SUBMIT;
+                }
+                send(operation, request(operation), stats);
+            }
+        }
+
+        private HttpRequest request(Operation operation) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            switch (operation) {
+                case REGISTER:
+                    return post(registration, registrationBody("load-" + runId + "-r" + registrations.incrementAndGet()), null);
+                case SUBMIT:
+                    return post(warning, messageBody(null), authorization);
+                case UPDATE:
+                    return post(warning, messageBody(ownMessages.get(random.nextInt(ownMessages.size()))), authorization);
+                case QUERY_USER:
+                    return post(warning, new JSONObject().put("query", "user").put("nickname", username).toString(), authorization);
+                case QUERY_TIME:
+                    long end = System.currentTimeMillis();
+                    return post(warning, new JSONObject().put("query", "time")
+                            .put("timestart", TimeUtil.epochMilliToDateString(end - 60_000))
+                            .put("timeend", TimeUtil.epochMilliToDateString(end)).toString(), authorization);
+                case QUERY_AREA:
+                    double latitude = MIN_LATITUDE + random.nextDouble() * 9;
+                    double longitude = MIN_LONGITUDE + random.nextDouble() * 9;
+                    return post(warning, new JSONObject().put("query", "location")
+                            .put("uplatitude", latitude + 0.5).put("downlatitude", latitude)
+                            .put("uplongitude", longitude).put("downlongitude", longitude + 1).toString(), authorization);
+                case GET_ALL:
+                    return HttpRequest.newBuilder(warning).header("Authorization", authorization).GET().build();
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+
+        private String messageBody(Integer id) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            JSONObject json = new JSONObject()
+                    .put("nickname", username)
+                    .put("latitude", MIN_LATITUDE + random.nextDouble() * 9)
+                    .put("longitude", MIN_LONGITUDE + random.nextDouble() * 9)
+                    .put("sent", TimeUtil.epochMilliToDateString(System.currentTimeMillis()))
+                    .put("dangertype", DANGER_TYPES[random.nextInt(DANGER_TYPES.length)])
+                    .put("areacode", "358")
+                    .put("phonenumber", "0401234567");
+            if (random.nextDouble() < weatherFraction) {
+                json.put("weather", "");
+            }
+            if (id != null) {
+                json.put("id", id).put("updatereason", "Load test");
+            }
+            return json.toString();
+        }
+    }
+
+    private HttpResponse<String> send(Operation operation, HttpRequest request, Stats into) {
+        long start = System.nanoTime();
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (into != null) {
+                into.record(operation, System.nanoTime() - start, response.statusCode());
+            }
+            return response;
+        } catch (IOException e) {
+            if (into != null) {
+                into.record(operation, System.nanoTime() - start, -1);
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+            return null;
+        }
+    }
+
+    private static HttpRequest post(URI uri, String body, String authorization) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body));
+        if (authorization != null) {
+            builder.header("Authorization", authorization);
+        }
+        return builder.build();
+    }
+
+    private static String registrationBody(String username) {
+        return new JSONObject().put("username", username).put("password", "secret").put("email", username + "@example.com").toString();
+    }
+
+    private static String basic(String username, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Latencies and response classes of each operation over one measurement period.
+     */
+    private static final class Stats {
+
+        private final Map<Operation, OperationStats> operations = new EnumMap<>(Operation.class);
+        private final LatencyHistogram total = new LatencyHistogram();
+
+        private Stats() {
+            for (Operation operation : Operation.values()) {
+                operations.put(operation, new OperationStats());
+            }
+        }
+
+        private void record(Operation operation, long nanos, int status) {
+            operations.get(operation).record(nanos, status);
+            total.record(nanos);
+        }
+
+        private void print(double seconds) {
+            System.out.printf("%n%-9s %9s %9s %8s %8s %8s %8s %8s %8s %7s %7s %7s %7s%n", "operation", "count", "req/s",
+                    "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "4xx", "503", "5xx", "failed");
+            OperationStats all = new OperationStats();
+            for (Map.Entry<Operation, OperationStats> entry : operations.entrySet()) {
+                OperationStats operation = entry.getValue();
+                if (operation.latencies.count() > 0) {
+                    operation.print(entry.getKey().toString(), operation.latencies, seconds);
+                    all.add(operation);
+                }
+            }
+            all.print("total", total, seconds);
+
+            long errors = all.clientErrors.sum() + all.rejected.sum() + all.serverErrors.sum() + all.failed.sum();
+            System.out.printf("%nError rate %.3f%% (%d of %d requests)%n", total.count() == 0 ? 0 : errors * 100.0 / total.count(),
+                    errors, total.count());
+            System.out.println("Latency distribution of all requests:");
+            total.printDistribution(System.out);
+        }
+    }
+
+    private static final class OperationStats {
+
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final LongAdder clientErrors = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder serverErrors = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        private void record(long nanos, int status) {
+            latencies.record(nanos);
+            if (status < 0) {
+                failed.increment();
+            } else if (status == 503) {
+                rejected.increment();
+            } else if (status >= 500) {
+                serverErrors.increment();
+            } else if (status >= 400) {
+                clientErrors.increment();
+            }
+        }
+
+        private void add(OperationStats other) {
+            clientErrors.add(other.clientErrors.sum());
+            rejected.add(other.rejected.sum());
+            serverErrors.add(other.serverErrors.sum());
+            failed.add(other.failed.sum());
+        }
+
+        private void print(String name, LatencyHistogram histogram, double seconds) {
+            System.out.printf("%-9s %9d %9.1f %8.2f %8.2f %8.2f %8.2f %8.2f %8.2f %7d %7d %7d %7d%n", name,
+                    histogram.count(), histogram.count() / seconds, histogram.meanMs(),
+                    histogram.percentileMs(0.5), histogram.percentileMs(0.9), histogram.percentileMs(0.99),
+                    histogram.percentileMs(0.999), histogram.maxMs(),
+                    clientErrors.sum(), rejected.sum(), serverErrors.sum(), failed.sum());
+        }
+    }
+
+}
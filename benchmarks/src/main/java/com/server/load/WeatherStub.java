@@ -0,0 +1,93 @@
+package com.server.load;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A local stand-in for the weather service on {@code localhost:4001/weather}.
+ * <p>
+ * Answers every request with a temperature for the posted coordinates after a configurable delay,
+ * so the server can be measured against a slow or a fast weather service.
+ */
+final class WeatherStub {
+
+    private static final Pattern LATITUDE = Pattern.compile("<latitude>([^<]*)</latitude>");
+    private static final Pattern LONGITUDE = Pattern.compile("<longitude>([^<]*)</longitude>");
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final long latencyMs;
+    private final long jitterMs;
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * @param port      the port to listen on, or 0 for any free port
+     * @param latencyMs the base delay of each response, in milliseconds
+     * @param jitterMs  the maximum random delay added on top of the base delay, in milliseconds
+     */
+    WeatherStub(int port, long latencyMs, long jitterMs) throws IOException {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/weather", exchange -> {
+            requests.incrementAndGet();
+            String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            sleep();
+            byte[] response = ("<weather><latitude>" + group(LATITUDE, request) + "</latitude>"
+                    + "<longitude>" + group(LONGITUDE, request) + "</longitude>"
+                    + "<temperature>" + ThreadLocalRandom.current().nextInt(-30, 30) + "</temperature>"
+                    + "<Unit>Celcius</Unit></weather>").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/xml");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(response);
+            }
+        });
+        server.setExecutor(executor);
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/weather";
+    }
+
+    long requests() {
+        return requests.get();
+    }
+
+    private void sleep() {
+        long delay = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String group(Pattern pattern, String input) {
+        Matcher matcher = pattern.matcher(input);
+        return matcher.find() ? matcher.group(1) : "0";
+    }
+
+}
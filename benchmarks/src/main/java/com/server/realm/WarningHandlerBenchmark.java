@@ -0,0 +1,120 @@
+package com.server.realm;
+
+import com.server.storage.BenchmarkDatabases;
+import com.server.storage.MessageDatabase;
+import com.server.storage.WeatherEnricher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a request through {@link WarningHandler}: parsing and validating the body, running the database operation
+ * and writing the response. The invalid request shows the cost of parsing alone,
+ * and {@code pollNotModified} a client polling with the ETag of its previous response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WarningHandlerBenchmark {
+
+    private static final int ROWS = 10_000;
+
+    private static final byte[] SUBMIT = bytes("{\"nickname\":\"nick\",\"latitude\":65.0123,\"longitude\":25.4712,"
+            + "\"sent\":\"2024-01-22T13:45:12.345Z\",\"dangertype\":\"Moose\",\"areacode\":\"358\",\"phonenumber\":\"0401234567\"}");
+    private static final byte[] INVALID = bytes("{\"nickname\":\"nick\",\"latitude\":65.0123,\"longitude\":25.4712,"
+            + "\"sent\":\"2024-01-22T13:45:12.345Z\",\"dangertype\":\"Bear\",\"areacode\":\"358\",\"phonenumber\":\"0401234567\"}");
+    private static final byte[] QUERY_USER = bytes("{\"query\":\"user\",\"nickname\":\"nick42\"}");
+    private static final byte[] QUERY_TIME = bytes("{\"query\":\"time\",\"timestart\":\"2020-09-13T12:26:40.000Z\","
+            + "\"timeend\":\"2020-09-13T12:26:50.000Z\"}");
+
+    private File file;
+    private MessageDatabase database;
+    private WeatherEnricher weatherEnricher;
+    private WarningBroadcaster broadcaster;
+    private WarningHandler handler;
+    private String etag;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = BenchmarkDatabases.create(ROWS);
+        database = new MessageDatabase(file.getPath(), 1);
+        weatherEnricher = new WeatherEnricher(database);
+        broadcaster = new WarningBroadcaster();
+        handler = new WarningHandler(database, weatherEnricher, broadcaster);
+
+        StubExchange first = new StubExchange("GET", "/warning?limit=100", "benchmark", new byte[0]);
+        handler.handle(first);
+        etag = first.getResponseHeaders().getFirst("ETag");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        broadcaster.close();
+        weatherEnricher.close();
+        database.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public int submit() throws IOException {
+        return post(SUBMIT);
+    }
+
+    @Benchmark
+    public int invalid() throws IOException {
+        return post(INVALID);
+    }
+
+    @Benchmark
+    public int queryByNickname() throws IOException {
+        return post(QUERY_USER);
+    }
+
+    @Benchmark
+    public int queryByTime() throws IOException {
+        return post(QUERY_TIME);
+    }
+
+    @Benchmark
+    public int poll() throws IOException {
+        StubExchange exchange = new StubExchange("GET", "/warning?limit=100", "benchmark", new byte[0]);
+        handler.handle(exchange);
+        return exchange.getResponseCode();
+    }
+
+    @Benchmark
+    public int pollNotModified() throws IOException {
+        StubExchange exchange = new StubExchange("GET", "/warning?limit=100", "benchmark", new byte[0]);
+        exchange.getRequestHeaders().set("If-None-Match", etag);
+        handler.handle(exchange);
+        return exchange.getResponseCode();
+    }
+
+    private int post(byte[] body) throws IOException {
+        StubExchange exchange = new StubExchange("POST", "/warning", "benchmark", body);
+        handler.handle(exchange);
+        return exchange.getResponseCode();
+    }
+
+    private static byte[] bytes(String body) {
+        return body.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
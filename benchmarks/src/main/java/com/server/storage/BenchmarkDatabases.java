@@ -0,0 +1,97 @@
+package com.server.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * Creates database files with generated messages for the benchmarks.
+ * <p>
+ * Messages are spread evenly over 1000 nicknames, one message per second of sent time starting from {@link #FIRST_SENT} by default,
+ * and random coordinates inside a 10 x 10 degree area starting from {@link #MIN_LATITUDE} and {@link #MIN_LONGITUDE}.
+ */
+public final class BenchmarkDatabases {
+
+    public static final int NICKNAMES = 1000;
+    public static final long FIRST_SENT = 1_600_000_000_000L;
+    public static final double MIN_LATITUDE = 60;
+    public static final double MIN_LONGITUDE = 20;
+
+    private BenchmarkDatabases() {
+        // Static utility class
+    }
+
+    /**
+     * Creates a new database file with the latest schema and the given amount of messages.
+     *
+     * @param rows the amount of messages to insert
+     * @return the database file, deleted when the JVM exits
+     * @throws IOException  if the file cannot be created
+     * @throws SQLException if the messages cannot be inserted
+     */
+    public static File create(int rows) throws IOException, SQLException {
+        return create(rows, FIRST_SENT);
+    }
+
+    /**
+     * Creates a new database file with the latest schema and the given amount of messages.
+     *
+     * @param rows      the amount of messages to insert
+     * @param firstSent the sent time of the first message, in epoch milliseconds
+     * @return the database file, deleted when the JVM exits
+     * @throws IOException  if the file cannot be created
+     * @throws SQLException if the messages cannot be inserted
+     */
+    public static File create(int rows, long firstSent) throws IOException, SQLException {
+        File file = File.createTempFile("benchmark", ".db");
+        file.delete();
+        file.deleteOnExit();
+        new File(file.getPath() + "-wal").deleteOnExit();
+        new File(file.getPath() + "-shm").deleteOnExit();
+
+        // Creates the schema, including the indexes and triggers
+        new MessageDatabase(file.getPath(), 1).close();
+        fill(file.getPath(), rows, firstSent);
+        return file;
+    }
+
+    public static Connection connect(File file) throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+    }
+
+    private static void fill(String path, int rows, long firstSent) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path)) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA synchronous = OFF");
+            }
+            connection.setAutoCommit(false);
+            Random random = new Random(1);
+            try (PreparedStatement ps = connection.prepareStatement(DBQueries.INSERT_MESSAGE)) {
+                for (int i = 0; i < rows; i++) {
+                    ps.setString(1, "nick" + (i % NICKNAMES));
+                    ps.setDouble(2, MIN_LATITUDE + random.nextDouble() * 10);
+                    ps.setDouble(3, MIN_LONGITUDE + random.nextDouble() * 10);
+                    ps.setLong(4, firstSent + i * 1000L);
+                    ps.setString(5, "Moose");
+                    ps.setString(6, i % 2 == 0 ? "358" : null);
+                    ps.setString(7, i % 2 == 0 ? "0401234567" : null);
+                    ps.setString(8, i % 3 == 0 ? "-4 Celcius" : null);
+                    ps.setString(9, "dummy");
+                    ps.addBatch();
+                    if (i % 10_000 == 9_999) {
+                        ps.executeBatch();
+                        connection.commit();
+                    }
+                }
+                ps.executeBatch();
+                connection.commit();
+            }
+        }
+    }
+
+}
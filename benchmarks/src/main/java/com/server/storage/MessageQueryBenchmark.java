@@ -0,0 +1,92 @@
+package com.server.storage;
+
+import com.server.util.JsonStreamWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.json.JSONArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each {@code getMessages} overload, and the streaming variant of the unfiltered query, at several table sizes.
+ * The filtered queries are sized to match roughly 0.1% of the table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageQueryBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private File file;
+    private MessageDatabase database;
+    private long timeStart;
+    private long timeEnd;
+    private double areaSize;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = BenchmarkDatabases.create(rows);
+        database = new MessageDatabase(file.getPath(), 1);
+
+        // The middle 0.1% of the sent times
+        long span = rows / 1000 * 1000L;
+        timeStart = BenchmarkDatabases.FIRST_SENT + rows / 2 * 1000L;
+        timeEnd = timeStart + span;
+        // A square covering 0.1% of the 10 x 10 degree area
+        areaSize = 10 * Math.sqrt(0.001);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public JSONArray all() throws SQLException {
+        return database.getMessages();
+    }
+
+    @Benchmark
+    public int allStreamed() throws SQLException, IOException {
+        return database.streamMessages(Page.ALL, () -> new JsonStreamWriter(Writer.nullWriter()));
+    }
+
+    @Benchmark
+    public JSONArray byNickname() throws SQLException {
+        return database.getMessages("nick42");
+    }
+
+    @Benchmark
+    public JSONArray byTime() throws SQLException {
+        return database.getMessages(timeStart, timeEnd);
+    }
+
+    @Benchmark
+    public JSONArray byArea() throws SQLException {
+        double up = BenchmarkDatabases.MIN_LATITUDE + 5 + areaSize / 2;
+        double left = BenchmarkDatabases.MIN_LONGITUDE + 5 - areaSize / 2;
+        return database.getMessages(up, up - areaSize, left, left + areaSize);
+    }
+
+}
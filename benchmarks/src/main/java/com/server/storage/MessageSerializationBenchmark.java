@@ -0,0 +1,113 @@
+package com.server.storage;
+
+import com.server.util.JsonStreamWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.json.JSONArray;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-row cost of turning messages into JSON, through {@code parseMsgToArray} and through the
+ * streaming writer. The {@code readOnly} baseline only reads the columns, so the difference is the serialization cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageSerializationBenchmark {
+
+    private static final int ROWS = 1000;
+
+    private File file;
+    private MessageDatabase database;
+    private Connection connection;
+    private PreparedStatement statement;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = BenchmarkDatabases.create(ROWS);
+        database = new MessageDatabase(file.getPath(), 1);
+        connection = BenchmarkDatabases.connect(file);
+        statement = connection.prepareStatement(DBQueries.GET_ALL_MESSAGES);
+        // Every message, the page parameters stay bound for all invocations
+        statement.setLong(1, Page.ALL.getAfter());
+        statement.setInt(2, Page.ALL.getLimit());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        statement.close();
+        connection.close();
+        database.close();
+        file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void readOnly(Blackhole blackhole) throws SQLException {
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                blackhole.consume(rs.getInt("id"));
+                blackhole.consume(rs.getString("nickname"));
+                blackhole.consume(rs.getDouble("latitude"));
+                blackhole.consume(rs.getDouble("longitude"));
+                blackhole.consume(rs.getLong("sent"));
+                blackhole.consume(rs.getString("dangertype"));
+                blackhole.consume(rs.getString("areacode"));
+                blackhole.consume(rs.getString("phonenumber"));
+                blackhole.consume(rs.getString("updatereason"));
+                blackhole.consume(rs.getLong("modified"));
+                blackhole.consume(rs.getString("weather"));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public String parseMsgToArray() throws SQLException {
+        JSONArray array = new JSONArray();
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                database.parseMsgToArray(rs, array);
+            }
+        }
+        // The handlers used to serialize the whole array into a String
+        return array.toString();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void writeMessage() throws SQLException, IOException {
+        JsonStreamWriter writer = new JsonStreamWriter(Writer.nullWriter());
+        writer.beginArray();
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                database.writeMessage(rs, writer);
+            }
+        }
+        writer.endArray();
+    }
+
+}
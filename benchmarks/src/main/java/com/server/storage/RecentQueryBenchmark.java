@@ -0,0 +1,75 @@
+package com.server.storage;
+
+import com.server.util.JsonStreamWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures time queries over the last hour, and area queries limited to it, with and without the recent message cache.
+ * The table holds a day of messages sent up to now, one per second, and the cache holds the last six hours of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecentQueryBenchmark {
+
+    private static final int ROWS = 24 * 60 * 60;
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    @Param({"0", "100000"})
+    public int cacheMessages;
+
+    private File file;
+    private MessageDatabase database;
+    private long now;
+    private double areaSize;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        now = System.currentTimeMillis();
+        file = BenchmarkDatabases.create(ROWS, now - ROWS * 1000L);
+        database = new MessageDatabase(file.getPath(), 1, 6 * HOUR_MS, cacheMessages);
+        // A square covering 1% of the 10 x 10 degree area
+        areaSize = 10 * Math.sqrt(0.01);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public int lastHour() throws SQLException, IOException {
+        return database.streamMessages(now - HOUR_MS, now, new Page(0, 1000), () -> new JsonStreamWriter(Writer.nullWriter()));
+    }
+
+    @Benchmark
+    public int lastHourInArea() throws SQLException, IOException {
+        double up = BenchmarkDatabases.MIN_LATITUDE + 5 + areaSize / 2;
+        double left = BenchmarkDatabases.MIN_LONGITUDE + 5 - areaSize / 2;
+        return database.streamMessages(up, up - areaSize, left, left + areaSize, now - HOUR_MS, now, new Page(0, 1000),
+                () -> new JsonStreamWriter(Writer.nullWriter()));
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.server.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares location queries through the R*Tree index against the full table scan they replaced.
+ * Both variants answer the same boxes, small areas of roughly 10 x 10 km.
+ * <p>
+ * Filling the database takes a while for large tables, so 10 million rows must be asked for explicitly:
+ * {@code java -jar target/benchmarks.jar SpatialQueryBenchmark -p rows=10000000}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpatialQueryBenchmark {
+
+    private static final String SCAN_QUERY = "SELECT * FROM messages WHERE latitude <= ? AND latitude >= ? AND longitude >= ? AND longitude <= ?";
+    private static final int BOXES = 256;
+
+    @Param({"100000", "1000000"})
+    public int rows;
+
+    private File file;
+    private Connection connection;
+    private PreparedStatement scan;
+    private PreparedStatement index;
+    private final double[][] boxes = new double[BOXES][];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = BenchmarkDatabases.create(rows);
+        connection = BenchmarkDatabases.connect(file);
+        scan = connection.prepareStatement(SCAN_QUERY);
+        index = connection.prepareStatement(DBQueries.GET_MESSAGES_BY_AREA);
+        // The whole box as one page, like the scan. Only the box changes between invocations.
+        index.setLong(5, Page.ALL.getAfter());
+        index.setInt(6, Page.ALL.getLimit());
+
+        Random random = new Random(42);
+        for (int i = 0; i < BOXES; i++) {
+            double lat = BenchmarkDatabases.MIN_LATITUDE + random.nextDouble() * 10;
+            double lon = BenchmarkDatabases.MIN_LONGITUDE + random.nextDouble() * 10;
+            boxes[i] = new double[]{lat + 0.05, lat - 0.05, lon - 0.1, lon + 0.1};
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public int fullScan() throws SQLException {
+        return count(scan);
+    }
+
+    @Benchmark
+    public int rtree() throws SQLException {
+        return count(index);
+    }
+
+    private int count(PreparedStatement ps) throws SQLException {
+        double[] box = boxes[next++ & (BOXES - 1)];
+        for (int i = 0; i < box.length; i++) {
+            ps.setDouble(i + 1, box[i]);
+        }
+        try (ResultSet rs = ps.executeQuery()) {
+            int count = 0;
+            while (rs.next()) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.server.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures inserting messages, alone and with concurrent writers sharing group commits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubmitMessageBenchmark {
+
+    private File file;
+    private MessageDatabase database;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = BenchmarkDatabases.create(0);
+        database = new MessageDatabase(file.getPath(), 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+        file.delete();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int submitSingleWriter() throws SQLException {
+        return submit();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public int submitConcurrentWriters() throws SQLException {
+        return submit();
+    }
+
+    private int submit() throws SQLException {
+        return database.submitMessage("nick", 65.01, 25.47, System.currentTimeMillis(), "Moose", "358", null, null, "dummy");
+    }
+
+}
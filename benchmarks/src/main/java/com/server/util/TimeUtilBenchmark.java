@@ -0,0 +1,75 @@
+package com.server.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the date conversions done for every submitted message, time query and returned message,
+ * against the formatter-based conversions they replaced.
+ * Run with {@code -prof gc} to see the allocations per conversion.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeUtilBenchmark {
+
+    private static final String DATE_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSSX";
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(DATE_PATTERN);
+
+    public String date = "2024-01-22T13:45:12.345Z";
+    public long epochMs = 1705931112345L;
+    private final char[] buffer = new char[TimeUtil.DATE_LENGTH];
+
+    @Benchmark
+    public long parse() {
+        return TimeUtil.dateStringToEpochMilli(date);
+    }
+
+    @Benchmark
+    public long parseCachedFormatter() {
+        return ZonedDateTime.parse(date, FORMATTER).toInstant().toEpochMilli();
+    }
+
+    @Benchmark
+    public long parsePatternPerCall() {
+        return ZonedDateTime.parse(date, DateTimeFormatter.ofPattern(DATE_PATTERN)).toInstant().toEpochMilli();
+    }
+
+    @Benchmark
+    public String format() {
+        return TimeUtil.epochMilliToDateString(epochMs);
+    }
+
+    @Benchmark
+    public char[] formatToBuffer() {
+        TimeUtil.formatTo(epochMs, buffer, 0);
+        return buffer;
+    }
+
+    @Benchmark
+    public String formatCachedFormatter() {
+        return Instant.ofEpochMilli(epochMs).atZone(ZoneOffset.UTC).format(FORMATTER);
+    }
+
+    @Benchmark
+    public String formatPatternPerCall() {
+        return Instant.ofEpochMilli(epochMs).atZone(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern(DATE_PATTERN));
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded executor for request handlers, which sheds the requests it has no room for.
+ * <p>
+ * The HTTP server hands each request to the executor before the request has been read, so there is no
+ * exchange to answer yet when the executor is full. Instead of dropping such requests, they are run on a small
+ * separate pool with a flag set, and {@link AdmissionFilter} answers them with 503 Service Unavailable
+ * without running the handler or the authenticator.
+ */
+class AdmissionControlExecutor extends ThreadPoolExecutor {
+
+    private static final ThreadLocal<Boolean> SHEDDING = ThreadLocal.withInitial(() -> false);
+
+    private final ThreadPoolExecutor shedder;
+
+    /**
+     * @param threads the amount of threads running requests
+     * @param queue   the maximum amount of requests waiting for a thread
+     */
+    AdmissionControlExecutor(int threads, int queue) {
+        super(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, queue)), threadFactory("http-worker"));
+        allowCoreThreadTimeOut(true);
+        // Shed requests are cheap to answer, a couple of threads is enough. Their queue is unbounded, since running
+        // a shed request on the caller would do its TLS handshake and header read on the server's dispatcher thread,
+        // stalling every other connection. Slow clients are cut off by sun.net.httpserver.maxReqTime, see Server.
+        this.shedder = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                threadFactory("http-shedder"));
+        setRejectedExecutionHandler((task, executor) -> shedder.execute(() -> runShed(task)));
+    }
+
+    /**
+     * {@return true if the current thread is running a request which was rejected by the executor}
+     */
+    static boolean isShedding() {
+        return SHEDDING.get();
+    }
+
+    private static void runShed(Runnable task) {
+        SHEDDING.set(true);
+        try {
+            task.run();
+        } finally {
+            SHEDDING.set(false);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        shedder.shutdown();
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> new Thread(runnable, prefix + "-" + count.incrementAndGet());
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+
+import static com.server.util.ResponseUtil.sendResponse;
+
+/**
+ * Answers requests shed by {@link AdmissionControlExecutor} with 503 Service Unavailable.
+ * Filters run before the authenticator, so shed requests do not pay for authentication either.
+ */
+public class AdmissionFilter extends Filter {
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (AdmissionControlExecutor.isShedding()) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendResponse(exchange, 503, "Server is busy, try again later");
+            return;
+        }
+        chain.doFilter(exchange);
+    }
+
+    @Override
+    public String description() {
+        return "Rejects requests the server has no capacity for";
+    }
+
+}
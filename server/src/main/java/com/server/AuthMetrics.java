@@ -0,0 +1,29 @@
+package com.server;
+
+import com.server.metrics.Counter;
+import com.server.metrics.Histogram;
+import com.server.metrics.Metrics;
+
+/**
+ * The metrics of credential checks, shared by the authenticators.
+ */
+final class AuthMetrics {
+
+    private static final Metrics.Family<Counter> CHECKS = Metrics.counter("auth_checks_total",
+            "Credential checks by method (basic or token) and result (valid, invalid or cached)", "method", "result");
+    private static final Metrics.Family<Histogram> DURATION = Metrics.histogram("auth_check_duration_seconds",
+            "Time spent checking credentials, by method and result", "method", "result");
+
+    private AuthMetrics() {
+        // Static utility class
+    }
+
+    /**
+     * Records a credential check which started at {@code startNanos}, a value of {@link System#nanoTime()}.
+     */
+    static void record(String method, String result, long startNanos) {
+        DURATION.labels(method, result).recordSince(startNanos);
+        CHECKS.labels(method, result).increment();
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.server;
+
+import com.server.util.InstancePool;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded, time-expiring cache of successfully verified credentials.
+ * <p>
+ * Verifying a password against its stored SHA-512 crypt hash is deliberately slow, and Basic authentication
+ * sends the password with every request. This cache remembers which (username, password) pairs were verified
+ * recently, so repeated requests only cost a keyed hash and a map lookup.
+ * <p>
+ * Passwords are never stored. Each entry holds an HMAC of the password, keyed with a random secret
+ * generated at startup, so the cache contents are useless outside of this process.
+ * The least recently used entries are evicted when the cache is full.
+ */
+class CredentialCache {
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final int maxSize;
+    private final long ttlMs;
+    private final LongSupplier clock;
+    private final SecretKeySpec key;
+    private final InstancePool<Mac> macs;
+    private final Map<String, Verified> entries;
+
+    /**
+     * @param maxSize the maximum amount of users to remember
+     * @param ttlMs   how long a verification stays valid, in milliseconds
+     */
+    CredentialCache(int maxSize, long ttlMs) {
+        this(maxSize, ttlMs, System::currentTimeMillis);
+    }
+
+    CredentialCache(int maxSize, long ttlMs, LongSupplier clock) {
+        this.maxSize = maxSize;
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.key = new SecretKeySpec(secret, MAC_ALGORITHM);
+        this.macs = new InstancePool<>(this::createMac);
+        // Access ordered, so that iteration starts from the least recently used entry
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Verified> eldest) {
+                return size() > CredentialCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * {@return true if the given credentials have been verified recently, false otherwise}
+     *
+     * @param username the username
+     * @param password the password
+     */
+    boolean contains(String username, String password) {
+        if (maxSize <= 0) return false;
+
+        byte[] digest = digest(password);
+        long now = clock.getAsLong();
+        synchronized (entries) {
+            Verified entry = entries.get(username);
+            if (entry == null) {
+                return false;
+            }
+            if (entry.expiresAt <= now) {
+                entries.remove(username);
+                return false;
+            }
+            return MessageDigest.isEqual(entry.digest, digest);
+        }
+    }
+
+    /**
+     * Remembers the given credentials as verified.
+     *
+     * @param username the username
+     * @param password the password, which must have been verified against the database
+     */
+    void put(String username, String password) {
+        if (maxSize <= 0) return;
+
+        Verified entry = new Verified(digest(password), clock.getAsLong() + ttlMs);
+        synchronized (entries) {
+            entries.put(username, entry);
+        }
+    }
+
+    /**
+     * Forgets the verified credentials of a user. Must be called whenever the password of the user changes.
+     *
+     * @param username the username
+     */
+    void invalidate(String username) {
+        synchronized (entries) {
+            entries.remove(username);
+        }
+    }
+
+    private byte[] digest(String password) {
+        Mac mac = macs.acquire();
+        // doFinal resets the MAC, so it can be reused right away
+        byte[] digest = mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        macs.release(mac);
+        return digest;
+    }
+
+    private Mac createMac() {
+        try {
+            Mac instance = Mac.getInstance(MAC_ALGORITHM);
+            instance.init(key);
+            return instance;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(MAC_ALGORITHM + " is not available", e);
+        }
+    }
+
+    private static class Verified {
+
+        private final byte[] digest;
+        private final long expiresAt;
+
+        private Verified(byte[] digest, long expiresAt) {
+            this.digest = digest;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.server;
+
+import com.server.util.Config;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.server.util.ResponseUtil.sendResponse;
+
+/**
+ * Answers clients sending faster than their limit with 429 Too Many Requests, see {@link RateLimiter}.
+ * <p>
+ * Filters added to a context run before its authenticator, so {@link #perAddress()} also protects the expensive
+ * password checks. The principal is only known after authentication, so {@link #perUser()} has to be chained in
+ * front of the handler itself instead, see {@link Server}. Requests which are not authenticated pass it unlimited.
+ */
+public class RateLimitFilter extends Filter {
+
+    private static final int STRIPES = Config.getInt("ratelimit.stripes", 4096);
+
+    private final RateLimiter limiter;
+    private final Function<HttpExchange, Object> key;
+    private final String description;
+
+    private RateLimitFilter(RateLimiter limiter, Function<HttpExchange, Object> key, String description) {
+        this.limiter = limiter;
+        this.key = key;
+        this.description = description;
+    }
+
+    /**
+     * {@return a filter limiting each remote address to {@code ratelimit.address.perSecond} requests per second,
+     * with bursts of {@code ratelimit.address.burst}, or null if the limit is disabled with a rate of 0}
+     */
+    public static RateLimitFilter perAddress() {
+        int rate = Config.getInt("ratelimit.address.perSecond", 50);
+        if (rate <= 0) {
+            return null;
+        }
+        return new RateLimitFilter(new RateLimiter(rate, Config.getInt("ratelimit.address.burst", 100), STRIPES),
+                exchange -> exchange.getRemoteAddress().getAddress(), "Limits the request rate of each remote address");
+    }
+
+    /**
+     * {@return a filter limiting each authenticated user to {@code ratelimit.user.perSecond} requests per second,
+     * with bursts of {@code ratelimit.user.burst}, or null if the limit is disabled with a rate of 0}
+     */
+    public static RateLimitFilter perUser() {
+        int rate = Config.getInt("ratelimit.user.perSecond", 20);
+        if (rate <= 0) {
+            return null;
+        }
+        return new RateLimitFilter(new RateLimiter(rate, Config.getInt("ratelimit.user.burst", 40), STRIPES),
+                exchange -> {
+                    HttpPrincipal principal = exchange.getPrincipal();
+                    return principal != null ? principal.getUsername() : null;
+                }, "Limits the request rate of each user");
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        Object client = key.apply(exchange);
+        long waitNanos = client != null ? limiter.tryAcquire(client) : 0;
+        if (waitNanos > 0) {
+            long waitSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+            exchange.getResponseHeaders().set("Retry-After", Long.toString(waitSeconds));
+            sendResponse(exchange, 429, "Too many requests, try again later");
+            return;
+        }
+        chain.doFilter(exchange);
+    }
+
+    @Override
+    public String description() {
+        return description;
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * A lock-free token bucket rate limiter for many clients, using the generic cell rate algorithm (GCRA).
+ * <p>
+ * Instead of a token count and a refill time, each bucket is a single timestamp: the time at which the client
+ * would have used up its burst allowance if it kept sending at the permitted rate. A request is allowed if that time is
+ * at most one burst ahead of now, and then moves the time forward by one emission interval. Since the whole state is
+ * one long, a request costs a single compare-and-set, and idle clients need no cleanup at all.
+ * <p>
+ * Clients are hashed onto a fixed array of buckets (stripes) instead of getting one each, so memory use stays bounded
+ * however many addresses or users show up. Clients sharing a stripe share a limit, which only matters if the array
+ * is small compared to the amount of clients sending at the same time.
+ */
+class RateLimiter {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLongArray buckets;
+    private final int mask;
+    private final LongSupplier clock;
+    private final long origin;
+
+    /**
+     * @param permitsPerSecond the sustained rate allowed for each client
+     * @param burst            how many requests a client can send at once after being idle
+     * @param stripes          the amount of buckets, rounded up to a power of two
+     */
+    RateLimiter(double permitsPerSecond, int burst, int stripes) {
+        this(permitsPerSecond, burst, stripes, System::nanoTime);
+    }
+
+    RateLimiter(double permitsPerSecond, int burst, int stripes, LongSupplier clock) {
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        int size = Integer.highestOneBit(Math.max(1, Math.min(stripes, 1 << 30)) * 2 - 1);
+        this.buckets = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.clock = clock;
+        // Times are kept relative to the creation of the limiter, so that an unused bucket (0) is always in the past
+        this.origin = clock.getAsLong();
+    }
+
+    /**
+     * Takes a permit for a client, if it has one left.
+     *
+     * @param key identifies the client
+     * @return 0 if the request is allowed, otherwise how long the client has to wait for its next permit, in nanoseconds
+     */
+    long tryAcquire(Object key) {
+        int stripe = spread(key.hashCode()) & mask;
+        long now = clock.getAsLong() - origin;
+        while (true) {
+            long arrival = buckets.get(stripe);
+            long start = Math.max(arrival, now);
+            long wait = start - toleranceNanos - now;
+            if (wait > 0) {
+                return wait;
+            }
+            if (buckets.compareAndSet(stripe, arrival, start + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    private static int spread(int hash) {
+        // The finalizer of MurmurHash3, since addresses and short names differ mostly in a few bits
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
+    }
+
+}
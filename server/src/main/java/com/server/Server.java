@@ -1,8 +1,23 @@
 package com.server;
 
+import com.server.realm.LoginHandler;
 import com.server.realm.RegistrationHandler;
+import com.server.realm.WarningBatchHandler;
+import com.server.realm.WarningExportHandler;
+import com.server.realm.WarningBroadcaster;
 import com.server.realm.WarningHandler;
+import com.server.realm.WarningStreamHandler;
+import com.server.metrics.Metrics;
+import com.server.metrics.MetricsFilter;
+import com.server.metrics.MetricsHandler;
 import com.server.storage.MessageDatabase;
+import com.server.storage.WeatherEnricher;
+import com.server.util.Config;
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpsConfigurator;
 import com.sun.net.httpserver.HttpsParameters;
 import com.sun.net.httpserver.HttpsServer;
@@ -13,9 +28,11 @@ import javax.net.ssl.SSLParameters;
 import javax.net.ssl.TrustManagerFactory;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.security.KeyStore;
-import java.util.concurrent.Executors;
+import java.util.List;
 
 public class Server {
 
@@ -25,9 +42,25 @@ public class Server {
     public static void main(String[] args) {
         try {
             System.out.println("Howdy! Starting server...");
+            /*
+             * Chunked responses end with a small final chunk, which Nagle's algorithm holds back until the client
+             * acknowledges the previous segment. With delayed ACKs that adds ~40 ms to every streamed response.
+             */
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+                System.setProperty("sun.net.httpserver.nodelay", Boolean.toString(Config.getBoolean("server.tcpNoDelay", true)));
+            }
+            /*
+             * The TLS handshake and the request headers are read on the executor's threads, shed requests included.
+             * Without a limit a client which never finishes its request keeps a thread for as long as it likes.
+             */
+            if (System.getProperty("sun.net.httpserver.maxReqTime") == null) {
+                System.setProperty("sun.net.httpserver.maxReqTime", Integer.toString(Config.getInt("server.maxRequestSeconds", 30)));
+            }
             MessageDatabase database = new MessageDatabase();
-            //create the http server to port 8001 with default logger
-            HttpsServer server = HttpsServer.create(new InetSocketAddress(8001), 0);
+            WeatherEnricher weatherEnricher = new WeatherEnricher(database);
+            WarningBroadcaster broadcaster = new WarningBroadcaster();
+            //create the http server to port 8001 (or server.port) with default logger
+            HttpsServer server = HttpsServer.create(new InetSocketAddress(Config.getInt("server.port", 8001)), 0);
             SSLContext ssl = serverSSLContext(args);
 
             server.setHttpsConfigurator(new HttpsConfigurator(ssl) {
@@ -40,11 +73,22 @@ public class Server {
             });
 
             UserAuthenticator auth = new UserAuthenticator(database);
-            server.createContext("/warning", new WarningHandler(database)).setAuthenticator(auth);
-            server.createContext("/registration", new RegistrationHandler(auth));
+            TokenService tokens = new TokenService(Config.getString("auth.tokenSecret", null), Config.getLong("auth.tokenTtlMs", 60 * 60 * 1000));
+            TokenAuthenticator tokenAuth = new TokenAuthenticator(tokens, auth);
+            RateLimitFilter addressLimit = RateLimitFilter.perAddress();
+            RateLimitFilter userLimit = RateLimitFilter.perUser();
+            createContext(server, "/warning", new WarningHandler(database, weatherEnricher, broadcaster), tokenAuth, addressLimit, userLimit);
+            createContext(server, "/warning/batch", new WarningBatchHandler(database, weatherEnricher, broadcaster), tokenAuth, addressLimit, userLimit);
+            createContext(server, "/warning/export", new WarningExportHandler(database), tokenAuth, addressLimit, userLimit);
+            createContext(server, "/warning/stream", new WarningStreamHandler(broadcaster), tokenAuth, addressLimit, userLimit);
+            createContext(server, "/registration", new RegistrationHandler(auth), null, addressLimit, null);
+            createContext(server, "/login", new LoginHandler(tokens), auth, addressLimit, userLimit);
 
-            server.setExecutor(Executors.newCachedThreadPool());
-            addShutdownHook(server, database);
+            server.setExecutor(ServerExecutors.fromConfig());
+            Metrics.gauge("sse_subscribers", "Clients subscribed to the warning stream", broadcaster::getSubscriberCount);
+            Metrics.gauge("weather_queue_depth", "Messages waiting for their weather", weatherEnricher::getQueueDepth);
+            HttpServer admin = startAdminServer();
+            addShutdownHook(server, admin, broadcaster, weatherEnricher, database);
             server.start();
             System.out.println("Started web server on " + server.getAddress());
         } catch (FileNotFoundException e) {
@@ -55,6 +99,41 @@ public class Server {
         }
     }
 
+    private static void createContext(HttpsServer server, String path, HttpHandler handler, Authenticator authenticator,
+                                      RateLimitFilter addressLimit, RateLimitFilter userLimit) {
+        HttpHandler limited = handler;
+        if (userLimit != null) {
+            // Context filters run before the authenticator, so the user limit is chained in front of the handler instead
+            List<Filter> filters = List.of(userLimit);
+            limited = exchange -> new Filter.Chain(filters, handler).doFilter(exchange);
+        }
+        HttpContext context = server.createContext(path, limited);
+        context.getFilters().add(new MetricsFilter(path));
+        context.getFilters().add(new AdmissionFilter());
+        if (addressLimit != null) {
+            context.getFilters().add(addressLimit);
+        }
+        if (authenticator != null) {
+            context.setAuthenticator(authenticator);
+        }
+    }
+
+    /**
+     * Starts the admin server serving {@code /metrics}, on {@code admin.port} of the loopback address only,
+     * so that the metrics are reachable by a local scraper but not from the outside. A port of 0 disables it.
+     */
+    private static HttpServer startAdminServer() throws IOException {
+        int port = Config.getInt("admin.port", 9001);
+        if (port <= 0) {
+            return null;
+        }
+        HttpServer admin = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        admin.createContext("/metrics", new MetricsHandler());
+        admin.start();
+        System.out.println("Started admin server on " + admin.getAddress());
+        return admin;
+    }
+
     private static SSLContext serverSSLContext(String[] args) throws Exception {
         final char[] passphrase;
         final String keyStoreFile;
@@ -81,14 +160,19 @@ public class Server {
         return ssl;
     }
 
-    private static void addShutdownHook(HttpsServer server, MessageDatabase database) {
+    private static void addShutdownHook(HttpsServer server, HttpServer admin, WarningBroadcaster broadcaster, WeatherEnricher weatherEnricher, MessageDatabase database) {
         /*
          * Adds a shutdown hook to the process so that
          * the webserver and database can be shut down gracefully.
          */
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Shutting down server...");
+            broadcaster.close();
             server.stop(0);
+            if (admin != null) {
+                admin.stop(0);
+            }
+            weatherEnricher.close();
             database.close();
         }));
     }
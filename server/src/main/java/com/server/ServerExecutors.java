@@ -0,0 +1,68 @@
+package com.server;
+
+import com.server.util.Config;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executor which runs the HTTP request handlers, according to the {@code server.executor} setting:
+ * <ul>
+ *     <li>{@code cached}: a new platform thread for every concurrent request, with no upper limit. The default.</li>
+ *     <li>{@code virtual}: a new virtual thread for every request. Requires Java 21 or newer at runtime,
+ *     older runtimes fall back to {@code cached}.</li>
+ *     <li>{@code bounded}: a fixed amount of threads and a bounded queue. Requests which do not fit
+ *     are answered with 503 Service Unavailable by {@link AdmissionFilter}.</li>
+ * </ul>
+ */
+public final class ServerExecutors {
+
+    private ServerExecutors() {
+        // Static utility class
+    }
+
+    /**
+     * {@return an executor configured by the {@code server.executor}, {@code server.threads} and {@code server.queue} settings}
+     */
+    public static ExecutorService fromConfig() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return create(Config.getString("server.executor", "cached"),
+                Config.getInt("server.threads", cores * 8),
+                Config.getInt("server.queue", cores * 64));
+    }
+
+    /**
+     * Creates an executor of the given mode.
+     *
+     * @param mode    the mode, one of {@code cached}, {@code virtual} or {@code bounded}
+     * @param threads the maximum amount of threads in {@code bounded} mode
+     * @param queue   the maximum amount of requests waiting for a thread in {@code bounded} mode
+     * @return the executor
+     * @throws IllegalArgumentException if the mode is unknown
+     */
+    public static ExecutorService create(String mode, int threads, int queue) {
+        switch (mode) {
+            case "cached":
+                return Executors.newCachedThreadPool();
+            case "virtual":
+                return newVirtualThreadExecutor();
+            case "bounded":
+                return new AdmissionControlExecutor(threads, queue);
+            default:
+                throw new IllegalArgumentException("Unknown executor mode: " + mode);
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            // Looked up reflectively, since the server is still compiled for Java 11
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Virtual threads need Java 21 or newer, using a cached thread pool instead");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.server;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+/**
+ * Authenticates requests with bearer tokens issued by {@link TokenService}.
+ * <p>
+ * Requests without a bearer token fall back to Basic authentication through {@link UserAuthenticator},
+ * so clients which have not moved to tokens keep working.
+ */
+public class TokenAuthenticator extends Authenticator {
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final TokenService tokens;
+    private final UserAuthenticator fallback;
+
+    public TokenAuthenticator(TokenService tokens, UserAuthenticator fallback) {
+        this.tokens = tokens;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Result authenticate(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())) {
+            return fallback.authenticate(exchange);
+        }
+
+        long start = System.nanoTime();
+        String username = tokens.verify(authorization.substring(BEARER_PREFIX.length()).trim());
+        AuthMetrics.record("token", username != null ? "valid" : "invalid", start);
+        if (username == null) {
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer realm=\"" + fallback.getRealm() + "\", error=\"invalid_token\"");
+            return new Failure(401);
+        }
+        return new Success(new HttpPrincipal(username, fallback.getRealm()));
+    }
+
+}
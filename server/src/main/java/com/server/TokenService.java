@@ -0,0 +1,122 @@
+package com.server;
+
+import com.server.util.InstancePool;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.function.LongSupplier;
+
+/**
+ * Issues and verifies signed, expiring bearer tokens.
+ * <p>
+ * A token has the form {@code base64url(username).expiry.base64url(signature)}, where the expiry is in epoch
+ * milliseconds and the signature is an HMAC-SHA256 of the two first parts. Tokens are verified with the
+ * secret key alone, without a database lookup. They stay valid until they expire, even if the password of the user changes.
+ */
+public class TokenService {
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMs;
+    private final LongSupplier clock;
+    private final InstancePool<Mac> macs = new InstancePool<>(this::createMac);
+
+    /**
+     * @param secret the signing secret, or null to generate a random one.
+     *               With a random secret, tokens are invalidated when the server restarts.
+     * @param ttlMs  how long issued tokens are valid, in milliseconds
+     */
+    public TokenService(String secret, long ttlMs) {
+        this(secret, ttlMs, System::currentTimeMillis);
+    }
+
+    TokenService(String secret, long ttlMs, LongSupplier clock) {
+        byte[] keyBytes;
+        if (secret == null) {
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(keyBytes, MAC_ALGORITHM);
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+    }
+
+    /**
+     * {@return how long issued tokens are valid, in milliseconds}
+     */
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    /**
+     * Issues a new token for the given user.
+     *
+     * @param username the user to issue the token for
+     * @return the token
+     */
+    public String issue(String username) {
+        long expiresAt = clock.getAsLong() + ttlMs;
+        String payload = ENCODER.encodeToString(username.getBytes(StandardCharsets.UTF_8)) + "." + expiresAt;
+        return payload + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    /**
+     * Verifies the signature and expiry of a token.
+     *
+     * @param token the token to verify
+     * @return the username the token was issued for, or null if the token is invalid or expired
+     */
+    public String verify(String token) {
+        int signatureStart = token.lastIndexOf('.');
+        int expiryStart = token.lastIndexOf('.', signatureStart - 1);
+        if (expiryStart <= 0) {
+            return null;
+        }
+
+        try {
+            String payload = token.substring(0, signatureStart);
+            byte[] signature = DECODER.decode(token.substring(signatureStart + 1));
+            if (!MessageDigest.isEqual(sign(payload), signature)) {
+                return null;
+            }
+
+            long expiresAt = Long.parseLong(token.substring(expiryStart + 1, signatureStart));
+            if (expiresAt <= clock.getAsLong()) {
+                return null;
+            }
+            return new String(DECODER.decode(token.substring(0, expiryStart)), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            // Malformed Base64 or expiry
+            return null;
+        }
+    }
+
+    private byte[] sign(String payload) {
+        Mac mac = macs.acquire();
+        // doFinal resets the MAC, so it can be reused right away
+        byte[] signature = mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+        macs.release(mac);
+        return signature;
+    }
+
+    private Mac createMac() {
+        try {
+            Mac instance = Mac.getInstance(MAC_ALGORITHM);
+            instance.init(key);
+            return instance;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(MAC_ALGORITHM + " is not available", e);
+        }
+    }
+
+}
@@ -1,11 +1,16 @@
 package com.server;
 
 import com.server.storage.MessageDatabase;
+import com.server.util.Config;
 import com.sun.net.httpserver.BasicAuthenticator;
 
 public class UserAuthenticator extends BasicAuthenticator {
 
+    private static final int CACHE_SIZE = Config.getInt("auth.cacheSize", 10000);
+    private static final long CACHE_TTL_MS = Config.getLong("auth.cacheTtlMs", 5 * 60 * 1000);
+
     private final MessageDatabase database;
+    private final CredentialCache cache = new CredentialCache(CACHE_SIZE, CACHE_TTL_MS);
 
     public UserAuthenticator(MessageDatabase database) {
         super("warning");
@@ -14,11 +19,33 @@ public class UserAuthenticator extends BasicAuthenticator {
 
     @Override
     public boolean checkCredentials(String username, String password) {
-        return database.checkCredentials(username, password);
+        long start = System.nanoTime();
+        if (cache.contains(username, password)) {
+            AuthMetrics.record("basic", "cached", start);
+            return true;
+        }
+
+        boolean valid = database.checkCredentials(username, password);
+        if (valid) {
+            cache.put(username, password);
+        }
+        AuthMetrics.record("basic", valid ? "valid" : "invalid", start);
+        return valid;
     }
 
     public boolean register(String username, String password, String email) {
+        cache.invalidate(username);
         return database.register(username, password, email);
     }
 
+    /**
+     * Forgets the cached credentials of a user, so that the next request is verified against the database again.
+     * Must be called whenever the password of the user changes.
+     *
+     * @param username the username
+     */
+    public void invalidate(String username) {
+        cache.invalidate(username);
+    }
+
 }
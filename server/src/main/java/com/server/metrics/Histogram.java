@@ -0,0 +1,111 @@
+package com.server.metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with logarithmic buckets, in the style of HdrHistogram.
+ * <p>
+ * Values are recorded in microseconds. Each power of two is split into two linear sub-buckets, so the buckets are
+ * at most half of their lower bound wide, with constant memory for any range. Recording is a few bit operations and
+ * two increments, without locking. The buckets from {@link #MIN_EXPORTED_MICROS} to {@link #MAX_EXPORTED_MICROS}
+ * are exported, coarser than that would not tell anything and finer would not be measured reliably anyway.
+ */
+public final class Histogram {
+
+    static final long MIN_EXPORTED_MICROS = 1L << 5;
+    static final long MAX_EXPORTED_MICROS = 1L << 25;
+    private static final int SUB_BITS = 1;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+    // The exported bucket bounds, and their rendering as seconds
+    private static final long[] BOUNDS;
+    private static final String[] BOUND_LABELS;
+
+    static {
+        int first = indexOf(MIN_EXPORTED_MICROS);
+        int last = indexOf(MAX_EXPORTED_MICROS);
+        BOUNDS = new long[last - first + 1];
+        BOUND_LABELS = new String[BOUNDS.length];
+        for (int i = 0; i < BOUNDS.length; i++) {
+            BOUNDS[i] = lowerBound(first + i);
+            BOUND_LABELS[i] = BigDecimal.valueOf(BOUNDS[i], 6).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram() {
+    }
+
+    /**
+     * Records a duration measured with {@link System#nanoTime()}.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void recordNanos(long nanos) {
+        counts.incrementAndGet(indexOf(Math.max(0, nanos / 1000)));
+        sumNanos.add(Math.max(0, nanos));
+    }
+
+    /**
+     * Records the time passed since {@code startNanos}, a value of {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    static int indexOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+    /**
+     * Copies the counts for exporting them.
+     *
+     * @return the cumulative counts of values below each of {@link #bucketLabels()}, followed by the total count
+     */
+    long[] cumulativeCounts() {
+        long[] cumulative = new long[BOUNDS.length + 1];
+        long seen = 0;
+        int bound = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            while (bound < BOUNDS.length && lowerBound(i) >= BOUNDS[bound]) {
+                cumulative[bound++] = seen;
+            }
+            seen += counts.get(i);
+        }
+        while (bound < BOUNDS.length) {
+            cumulative[bound++] = seen;
+        }
+        cumulative[BOUNDS.length] = seen;
+        return cumulative;
+    }
+
+    double sumSeconds() {
+        return sumNanos.sum() / 1e9;
+    }
+
+    /**
+     * {@return the upper bounds of the exported buckets in seconds, as Prometheus {@code le} labels}
+     */
+    static String[] bucketLabels() {
+        return BOUND_LABELS;
+    }
+
+}
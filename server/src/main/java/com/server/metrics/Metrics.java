@@ -0,0 +1,232 @@
+package com.server.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The registry of the server's metrics, exported in the Prometheus text format by {@link MetricsHandler}.
+ * <p>
+ * Metrics are created once, usually into static fields of the class they measure, and are then updated without
+ * locking. A metric with labels is a family of metrics, one per combination of label values, created on first use.
+ * Label values must come from a small fixed set (query names, status codes), never from user input,
+ * since every combination is kept for the lifetime of the process.
+ */
+public final class Metrics {
+
+    /*
+     * The operation of the request the current thread is handling, see #setOperation. Not an exchange attribute,
+     * since the attributes of the JDK server are shared by every exchange of a context.
+     */
+    private static final ThreadLocal<String> OPERATION = new ThreadLocal<>();
+    private static final Set<String> STANDARD_METHODS = Set.of("GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH");
+    private static final Map<String, Family<?>> FAMILIES = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+        // Static utility class
+    }
+
+    /**
+     * Returns the counters of the given name, creating them if they do not exist yet.
+     *
+     * @param name       the name of the metric, ending with {@code _total}
+     * @param help       what the metric counts
+     * @param labelNames the names of the labels, if any
+     * @return the family of counters
+     */
+    public static Family<Counter> counter(String name, String help, String... labelNames) {
+        return register(name, help, "counter", labelNames, Counter::new);
+    }
+
+    /**
+     * Returns the latency histograms of the given name, creating them if they do not exist yet.
+     *
+     * @param name       the name of the metric, ending with {@code _seconds}
+     * @param help       what the metric measures
+     * @param labelNames the names of the labels, if any
+     * @return the family of histograms
+     */
+    public static Family<Histogram> histogram(String name, String help, String... labelNames) {
+        return register(name, help, "histogram", labelNames, Histogram::new);
+    }
+
+    /**
+     * Registers a value which is read when the metrics are exported, eg. the size of a queue.
+     * A gauge registered again under the same name replaces the previous one.
+     *
+     * @param name  the name of the metric
+     * @param help  what the metric measures
+     * @param value reads the current value
+     */
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        Family<DoubleSupplier> family = new Family<>(name, help, "gauge", new String[0], () -> value);
+        FAMILIES.put(name, family);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Family<T> register(String name, String help, String type, String[] labelNames, Supplier<T> factory) {
+        Family<?> family = FAMILIES.computeIfAbsent(name, key -> new Family<>(name, help, type, labelNames, factory));
+        if (!family.type.equals(type) || family.labelNames.length != labelNames.length) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered differently");
+        }
+        return (Family<T>) family;
+    }
+
+    /**
+     * Names the operation of the request the calling handler is handling, eg. the type of a query, so that its
+     * request metrics are kept apart from other operations of the same context.
+     * Requests without an operation are labelled with their method.
+     *
+     * @param operation the name of the operation, from a fixed set
+     */
+    public static void setOperation(String operation) {
+        OPERATION.set(operation);
+    }
+
+    /**
+     * {@return the operation named by the handler of the request, and forgets it for the next request of the thread}
+     */
+    static String takeOperation(HttpExchange exchange) {
+        String operation = OPERATION.get();
+        OPERATION.remove();
+        if (operation != null) {
+            return operation;
+        }
+        // The method comes from the client, so anything unusual shares one label
+        String method = exchange.getRequestMethod();
+        return STANDARD_METHODS.contains(method) ? method.toLowerCase(Locale.ROOT) : "other";
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text exposition format, version 0.0.4.
+     *
+     * @param out the writer to write the metrics to
+     * @throws IOException if an I/O error occurs
+     */
+    static void writePrometheus(Writer out) throws IOException {
+        for (Family<?> family : FAMILIES.values()) {
+            family.write(out);
+        }
+    }
+
+    /**
+     * The metrics of one name, one for each combination of label values.
+     *
+     * @param <T> the type of the metrics
+     */
+    public static final class Family<T> {
+
+        private final String name;
+        private final String help;
+        private final String type;
+        private final String[] labelNames;
+        private final Supplier<T> factory;
+        // Keyed by the label value itself for a single label, which is the common case, and by a list of values otherwise
+        private final Map<Object, Child<T>> children = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, String type, String[] labelNames, Supplier<T> factory) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelNames = labelNames.clone();
+            this.factory = factory;
+        }
+
+        /**
+         * Returns the metric for the given label values, creating it on first use.
+         * Callers updating the same metric often should keep the result instead of looking it up every time.
+         *
+         * @param labelValues the values of the labels, in the order of their names
+         * @return the metric
+         */
+        public T labels(String... labelValues) {
+            if (labelValues.length != labelNames.length) {
+                throw new IllegalArgumentException("Metric " + name + " has " + labelNames.length + " labels");
+            }
+            Object key = labelValues.length == 1 ? labelValues[0] : List.of(labelValues);
+            Child<T> child = children.get(key);
+            if (child == null) {
+                child = children.computeIfAbsent(key, k -> new Child<>(labelValues.clone(), factory.get()));
+            }
+            return child.metric;
+        }
+
+        private void write(Writer out) throws IOException {
+            if (children.isEmpty() && labelNames.length == 0) {
+                labels();
+            }
+            out.write("# HELP " + name + " " + help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+            out.write("# TYPE " + name + " " + type + "\n");
+            for (Child<T> child : children.values()) {
+                String labels = labelPairs(child.labelValues);
+                if (child.metric instanceof Counter) {
+                    writeSample(out, name, labels, Long.toString(((Counter) child.metric).get()));
+                } else if (child.metric instanceof DoubleSupplier) {
+                    writeSample(out, name, labels, Double.toString(((DoubleSupplier) child.metric).getAsDouble()));
+                } else {
+                    writeHistogram(out, labels, (Histogram) child.metric);
+                }
+            }
+        }
+
+        private void writeHistogram(Writer out, String labels, Histogram histogram) throws IOException {
+            long[] counts = histogram.cumulativeCounts();
+            String[] bounds = Histogram.bucketLabels();
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            for (int i = 0; i < bounds.length; i++) {
+                writeSample(out, name + "_bucket", prefix + "le=\"" + bounds[i] + "\"", Long.toString(counts[i]));
+            }
+            writeSample(out, name + "_bucket", prefix + "le=\"+Inf\"", Long.toString(counts[bounds.length]));
+            writeSample(out, name + "_sum", labels, Double.toString(histogram.sumSeconds()));
+            writeSample(out, name + "_count", labels, Long.toString(counts[bounds.length]));
+        }
+
+        private String labelPairs(String[] labelValues) {
+            StringBuilder pairs = new StringBuilder();
+            for (int i = 0; i < labelNames.length; i++) {
+                if (i > 0) {
+                    pairs.append(',');
+                }
+                pairs.append(labelNames[i]).append("=\"").append(escape(labelValues[i])).append('"');
+            }
+            return pairs.toString();
+        }
+
+        private static void writeSample(Writer out, String name, String labels, String value) throws IOException {
+            out.write(name);
+            if (!labels.isEmpty()) {
+                out.write('{');
+                out.write(labels);
+                out.write('}');
+            }
+            out.write(' ');
+            out.write(value);
+            out.write('\n');
+        }
+
+        private static String escape(String value) {
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+    }
+
+    private static final class Child<T> {
+
+        private final String[] labelValues;
+        private final T metric;
+
+        private Child(String[] labelValues, T metric) {
+            this.labelValues = labelValues;
+            this.metric = metric;
+        }
+    }
+
+}
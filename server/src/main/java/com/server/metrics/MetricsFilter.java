@@ -0,0 +1,54 @@
+package com.server.metrics;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+
+/**
+ * Counts the requests of a context by operation and response code, and measures how long they take.
+ * <p>
+ * The filter is added to a context first, so the time includes admission, rate limiting and authentication,
+ * and rejected requests are counted as well. Streamed responses are measured until the handler returns,
+ * which for subscriptions is right after the stream has been set up.
+ * Handlers run on the thread of the filter, which lets them name their operation with {@link Metrics#setOperation}.
+ */
+public class MetricsFilter extends Filter {
+
+    private static final Metrics.Family<Counter> REQUESTS = Metrics.counter("http_requests_total",
+            "Requests handled, by context, operation and response code", "context", "operation", "code");
+    private static final Metrics.Family<Histogram> DURATION = Metrics.histogram("http_request_duration_seconds",
+            "Time from receiving a request to its handler returning, by context and operation", "context", "operation");
+
+    private final String context;
+
+    /**
+     * @param context the path of the context, used as a label
+     */
+    public MetricsFilter(String context) {
+        this.context = context;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        long start = System.nanoTime();
+        Metrics.takeOperation(exchange);
+        // A handler failing with an exception is counted as such, the server closes the connection on it
+        String code = "exception";
+        try {
+            chain.doFilter(exchange);
+            int responseCode = exchange.getResponseCode();
+            code = responseCode > 0 ? Integer.toString(responseCode) : "none";
+        } finally {
+            String operation = Metrics.takeOperation(exchange);
+            DURATION.labels(context, operation).recordSince(start);
+            REQUESTS.labels(context, operation, code).increment();
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Counts and times the requests of " + context;
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.server.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import static com.server.util.ResponseUtil.openStream;
+import static com.server.util.ResponseUtil.sendBadRequest;
+
+/**
+ * Serves all {@link Metrics} in the Prometheus text format, for scraping.
+ * The handler is meant for the admin server, which only listens on the loopback address.
+ */
+public class MetricsHandler implements HttpHandler {
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendBadRequest(exchange, "Not supported");
+            return;
+        }
+
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                openStream(exchange, 200, "text/plain; version=0.0.4; charset=utf-8"), StandardCharsets.UTF_8))) {
+            Metrics.writePrometheus(out);
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.server.realm;
+
+import com.server.TokenService;
+import com.server.util.TimeUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+import static com.server.util.ResponseUtil.sendBadRequest;
+import static com.server.util.ResponseUtil.sendResponse;
+
+/**
+ * Issues bearer tokens to users who have logged in with Basic authentication.
+ * The password is verified once here, and later requests can use the cheaper token instead.
+ */
+public class LoginHandler implements HttpHandler {
+
+    private final TokenService tokens;
+
+    public LoginHandler(TokenService tokens) {
+        this.tokens = tokens;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            // Only POST is supported
+            sendBadRequest(exchange, "Not supported");
+            return;
+        }
+
+        // The context authenticator has already verified the credentials
+        String username = exchange.getPrincipal().getUsername();
+        JSONObject json = new JSONObject();
+        json.put("token", tokens.issue(username));
+        json.put("expires", TimeUtil.epochMilliToDateString(System.currentTimeMillis() + tokens.getTtlMs()));
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        sendResponse(exchange, 200, json.toString());
+    }
+
+}
@@ -1,15 +1,14 @@
 package com.server.realm;
 
 import com.server.UserAuthenticator;
+import com.server.metrics.Metrics;
+import com.server.util.RequestTooLargeException;
+import com.server.util.RequestUtil;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.util.stream.Collectors;
 
 import static com.server.util.ResponseUtil.sendBadRequest;
 import static com.server.util.ResponseUtil.sendResponse;
@@ -29,37 +28,36 @@ public class RegistrationHandler implements HttpHandler {
             sendBadRequest(exchange, "Not supported");
             return;
         }
+        Metrics.setOperation("register");
 
         JSONObject json;
         try {
-            json = new JSONObject(new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))
-                    .lines()
-                    .collect(Collectors.joining()));
+            json = RequestUtil.readJsonObject(exchange);
+        } catch (RequestTooLargeException e) {
+            sendResponse(exchange, 413, "Request body too large");
+            return;
         } catch (Exception e) {
             sendBadRequest(exchange, "Invalid JSON: " + e.getMessage());
             return;
         }
 
-        String username;
-        String password;
-        String email;
+        RegistrationRequest registration;
         try {
-            username = json.getString("username");
-            password = json.getString("password");
-            email = json.getString("email");
-
-            if (username.isEmpty() || password.isEmpty() || email.isEmpty()) {
-                sendBadRequest(exchange, "All fields were not populated");
-                return;
-            }
+            registration = new RegistrationRequest(json);
         } catch (Exception e) {
             sendBadRequest(exchange, "Missing fields");
             return;
         }
+        if (!registration.isComplete()) {
+            sendBadRequest(exchange, "All fields were not populated");
+            return;
+        }
 
-        if (auth.register(username, password, email)) {
+        if (auth.register(registration.username, registration.password, registration.email)) {
             sendResponse(exchange, 200, "Registered");
         } else {
+            // Answered with 400 like malformed requests, so it is told apart by its operation
+            Metrics.setOperation("register_existing");
             sendBadRequest(exchange, "User already exists");
         }
     }
@@ -0,0 +1,31 @@
+package com.server.realm;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The credentials of a new user, as read from the request body.
+ */
+final class RegistrationRequest {
+
+    final String username;
+    final String password;
+    final String email;
+
+    /**
+     * Reads a registration from its JSON form.
+     *
+     * @param json the registration
+     * @throws JSONException if a field is missing or is not a string
+     */
+    RegistrationRequest(JSONObject json) {
+        this.username = json.getString("username");
+        this.password = json.getString("password");
+        this.email = json.getString("email");
+    }
+
+    boolean isComplete() {
+        return !username.isEmpty() && !password.isEmpty() && !email.isEmpty();
+    }
+
+}
@@ -0,0 +1,213 @@
+package com.server.realm;
+
+import com.server.storage.MessageDatabase;
+import com.server.storage.WeatherEnricher;
+import com.server.util.Config;
+import com.server.util.RequestTooLargeException;
+import com.server.util.RequestUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.server.util.ResponseUtil.sendBadRequest;
+import static com.server.util.ResponseUtil.sendResponse;
+
+/**
+ * Handles submissions of many warnings in one request, for gateways relaying the reports of several devices.
+ * <p>
+ * The body is either a JSON array of warnings or newline delimited JSON (NDJSON) with one warning per line.
+ * Every warning is validated like a single submission to {@code /warning}, and the valid ones are then inserted
+ * in one transaction. The response lists the result of each warning in the order they were sent,
+ * either the id of the stored message or the reason it was rejected, eg.
+ * {@code {"stored":1,"results":[{"index":0,"id":42},{"index":1,"error":"Invalid dangertype"}]}}.
+ * Only new warnings can be sent in batches, updates still go to {@code /warning} one at a time.
+ */
+public class WarningBatchHandler implements HttpHandler {
+
+    private static final int MAX_BATCH_BYTES = Config.getInt("batch.maxBytes", 4 * 1024 * 1024);
+    private static final int MAX_BATCH_ITEMS = Config.getInt("batch.maxItems", 1000);
+    private final MessageDatabase database;
+    private final WeatherEnricher weatherEnricher;
+    private final WarningBroadcaster broadcaster;
+    private final int maxBytes;
+    private final int maxItems;
+
+    public WarningBatchHandler(MessageDatabase database, WeatherEnricher weatherEnricher, WarningBroadcaster broadcaster) {
+        this(database, weatherEnricher, broadcaster, MAX_BATCH_BYTES, MAX_BATCH_ITEMS);
+    }
+
+    /**
+     * Creates a handler with its own limits instead of {@code batch.maxBytes} and {@code batch.maxItems}.
+     *
+     * @param maxBytes the maximum size of a request body in bytes
+     * @param maxItems the maximum amount of warnings in one request
+     */
+    WarningBatchHandler(MessageDatabase database, WeatherEnricher weatherEnricher, WarningBroadcaster broadcaster,
+                        int maxBytes, int maxItems) {
+        this.database = database;
+        this.weatherEnricher = weatherEnricher;
+        this.broadcaster = broadcaster;
+        this.maxBytes = maxBytes;
+        this.maxItems = maxItems;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            sendBadRequest(exchange, "Not supported");
+            return;
+        }
+
+        List<Object> items;
+        try {
+            items = readItems(exchange);
+        } catch (RequestTooLargeException e) {
+            sendResponse(exchange, 413, "Request body too large");
+            return;
+        } catch (JSONException e) {
+            sendBadRequest(exchange, "Invalid JSON");
+            return;
+        }
+        if (items.isEmpty()) {
+            sendBadRequest(exchange, "No warnings");
+            return;
+        }
+        if (items.size() > maxItems) {
+            sendResponse(exchange, 413, "Too many warnings, at most " + maxItems + " are accepted at once");
+            return;
+        }
+
+        JSONObject[] results = new JSONObject[items.size()];
+        List<WarningMessage> warnings = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            results[i] = new JSONObject().put("index", i);
+            String error = validate(items.get(i), warnings);
+            if (error != null) {
+                results[i].put("error", error);
+            } else {
+                indexes.add(i);
+            }
+        }
+
+        List<MessageDatabase.NewMessage> messages = new ArrayList<>(warnings.size());
+        for (WarningMessage warning : warnings) {
+            // The weather is filled in later by the enricher, like for single submissions
+            messages.add(new MessageDatabase.NewMessage(warning.nickname, warning.latitude, warning.longitude, warning.sent,
+                    warning.dangerType, warning.areaCode, warning.phoneNumber, null));
+        }
+        int[] ids;
+        try {
+            ids = database.submitMessages(messages, exchange.getPrincipal().getUsername());
+        } catch (SQLException e) {
+            sendResponse(exchange, 500, "Database error: " + e.getMessage());
+            return;
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            WarningMessage warning = warnings.get(i);
+            results[indexes.get(i)].put("id", ids[i]);
+            if (warning.withWeather) {
+                weatherEnricher.enqueue(ids[i], warning.latitude, warning.longitude);
+            }
+            broadcaster.publish("warning", WarningHandler.pushedMessage(ids[i], warning));
+        }
+        JSONObject response = new JSONObject();
+        response.put("stored", ids.length);
+        response.put("results", new JSONArray(results));
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        sendResponse(exchange, 200, response.toString());
+    }
+
+    /**
+     * Checks a warning of the batch, and adds it to {@code valid} if it can be stored.
+     *
+     * @return the reason the warning was rejected, or null if it is valid
+     */
+    private static String validate(Object item, List<WarningMessage> valid) {
+        if (!(item instanceof JSONObject)) {
+            return "Invalid JSON";
+        }
+        try {
+            WarningMessage warning = new WarningMessage((JSONObject) item);
+            if (warning.isUpdate()) {
+                return "Updates are not supported in batches";
+            }
+            if (!WarningHandler.DANGER_TYPES.contains(warning.dangerType)) {
+                return "Invalid dangertype";
+            }
+            valid.add(warning);
+            return null;
+        } catch (DateTimeException e) {
+            return "Invalid date format";
+        } catch (JSONException e) {
+            return "Invalid JSON";
+        }
+    }
+
+    /**
+     * Reads the warnings of the body, which is either a JSON array or NDJSON.
+     * A line of NDJSON which cannot be parsed is returned as null, so that it can be rejected on its own.
+     *
+     * @throws JSONException if the body is an array which cannot be parsed
+     */
+    private List<Object> readItems(HttpExchange exchange) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                RequestUtil.limitedBody(exchange, maxBytes), StandardCharsets.UTF_8));
+        List<Object> items = new ArrayList<>();
+        if (startsWithArray(reader)) {
+            JSONTokener tokener = new JSONTokener(reader);
+            try {
+                JSONArray array = new JSONArray(tokener);
+                if (tokener.nextClean() != 0) {
+                    throw tokener.syntaxError("Unexpected content after the JSON array");
+                }
+                array.forEach(items::add);
+            } catch (JSONException e) {
+                // The tokener wraps errors of the underlying stream
+                if (e.getCause() instanceof RequestTooLargeException) {
+                    throw (RequestTooLargeException) e.getCause();
+                }
+                throw e;
+            }
+            return items;
+        }
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                items.add(new JSONObject(line));
+            } catch (JSONException e) {
+                items.add(null);
+            }
+        }
+        return items;
+    }
+
+    private static boolean startsWithArray(BufferedReader reader) throws IOException {
+        while (true) {
+            reader.mark(1);
+            int c = reader.read();
+            if (c < 0 || !Character.isWhitespace(c)) {
+                reader.reset();
+                return c == '[';
+            }
+        }
+    }
+
+}
@@ -0,0 +1,283 @@
+package com.server.realm;
+
+import com.server.util.Config;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes accepted warnings to the subscribers of the Server-Sent Events stream.
+ * <p>
+ * Subscribers do not hold a thread while they wait. Each has a small queue of encoded events, and a shared pool
+ * of writer threads drains the queues that have something in them. Every event is encoded only once,
+ * however many subscribers receive it. A subscriber whose queue fills up is too slow to keep up and is disconnected,
+ * so that it cannot hold events in memory indefinitely; it can reconnect and catch up with a {@code changes} query.
+ * <p>
+ * Only writer threads ever write to or close a subscriber's stream, since either can block for as long as the client
+ * does not read. Threads publishing events never wait for a subscriber. A write, or close, which takes longer than
+ * {@code sse.writeTimeoutMs} is aborted by interrupting its writer thread, which closes the socket without flushing
+ * anything, so that stalled clients cannot hold on to the few writer threads.
+ * <p>
+ * Heartbeat comments are sent periodically to keep idle connections open through proxies,
+ * and to notice clients which have gone away, since writing to them fails.
+ */
+public class WarningBroadcaster implements AutoCloseable {
+
+    private static final int MAX_SUBSCRIBERS = Config.getInt("sse.maxSubscribers", 10000);
+    private static final int QUEUE_SIZE = Config.getInt("sse.queueSize", 64);
+    private static final int WRITERS = Config.getInt("sse.writerThreads", 2);
+    private static final long HEARTBEAT_SECONDS = Config.getLong("sse.heartbeatSeconds", 15);
+    private static final long WRITE_TIMEOUT_MS = Config.getLong("sse.writeTimeoutMs", 10000);
+
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    // Subscribers whose stream a writer thread is using right now, including ones already disconnected
+    private final Set<Subscriber> writing = ConcurrentHashMap.newKeySet();
+    private final long writeTimeoutNanos;
+    private final ExecutorService writers;
+    private final ScheduledExecutorService heartbeat;
+
+    public WarningBroadcaster() {
+        this(WRITE_TIMEOUT_MS);
+    }
+
+    /**
+     * @param writeTimeoutMs how long writing to or closing the stream of a subscriber may take before it is aborted
+     */
+    WarningBroadcaster(long writeTimeoutMs) {
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMs);
+        this.writers = Executors.newFixedThreadPool(WRITERS, daemonThreads("sse-writer-"));
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(daemonThreads("sse-heartbeat-"));
+        heartbeat.scheduleAtFixedRate(this::sendHeartbeat, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+        long checkMs = Math.max(1, writeTimeoutMs / 4);
+        heartbeat.scheduleAtFixedRate(this::abortStalledWrites, checkMs, checkMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Adds a subscriber, whose response headers must already have been sent.
+     *
+     * @param out        the response body of the subscriber
+     * @param connection closes the connection of the subscriber
+     * @param filter     selects the warnings to send
+     * @return true if the subscriber was added, false if there are too many subscribers already
+     */
+    boolean subscribe(OutputStream out, Closeable connection, WarningFilter filter) {
+        if (subscribers.size() >= MAX_SUBSCRIBERS) {
+            return false;
+        }
+        subscribers.add(new Subscriber(out, connection, filter));
+        return true;
+    }
+
+    /**
+     * {@return the amount of connected subscribers}
+     */
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Sends a warning to every subscriber whose filter it passes.
+     *
+     * @param event   the event name, {@code warning} for new messages and {@code update} for updated ones
+     * @param message the message, in the same format as query results
+     */
+    public void publish(String event, JSONObject message) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+
+        String dangerType = message.getString("dangertype");
+        double latitude = message.getDouble("latitude");
+        double longitude = message.getDouble("longitude");
+        byte[] encoded = null;
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.filter.matches(dangerType, latitude, longitude)) {
+                if (encoded == null) {
+                    // JSON never contains raw line breaks, so the whole message fits in one data line
+                    encoded = ("event: " + event + "\ndata: " + message + "\n\n").getBytes(StandardCharsets.UTF_8);
+                }
+                subscriber.offer(encoded);
+            }
+        }
+    }
+
+    private void sendHeartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(HEARTBEAT);
+        }
+    }
+
+    private void abortStalledWrites() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : writing) {
+            subscriber.abortIfStalled(now);
+        }
+    }
+
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.disconnect();
+        }
+        // Lets the writers close the connections, but does not wait for stalled clients
+        writers.shutdown();
+        try {
+            writers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writers.shutdownNow();
+    }
+
+    private final class Subscriber {
+
+        private final OutputStream out;
+        private final Closeable connection;
+        private final WarningFilter filter;
+        private final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        // Whether a writer has been asked to drain the queue, so that at most one writes to the stream at a time.
+        // Stays set once the connection has been closed, so that nothing is written after that.
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed;
+        // The writer thread using the stream and when it started, guarded by this
+        private Thread writer;
+        private long writeStart;
+
+        private Subscriber(OutputStream out, Closeable connection, WarningFilter filter) {
+            this.out = out;
+            this.connection = connection;
+            this.filter = filter;
+        }
+
+        private void offer(byte[] event) {
+            if (closed) {
+                return;
+            }
+            if (!queue.offer(event)) {
+                System.err.println("Disconnecting a Server-Sent Events subscriber which is too slow");
+                disconnect();
+                return;
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    writers.execute(this::drain);
+                } catch (RuntimeException e) {
+                    // Shutting down
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        /**
+         * Removes the subscriber without waiting for its stream. A write in progress, including the final close,
+         * is aborted, and the connection is closed by a writer thread.
+         */
+        private void disconnect() {
+            subscribers.remove(this);
+            closed = true;
+            queue.clear();
+            synchronized (this) {
+                if (writer != null) {
+                    writer.interrupt();
+                }
+            }
+            schedule();
+        }
+
+        private void abortIfStalled(long now) {
+            synchronized (this) {
+                if (writer == null || now - writeStart < writeTimeoutNanos) {
+                    return;
+                }
+            }
+            if (!closed) {
+                System.err.println("Disconnecting a Server-Sent Events subscriber whose write has stalled");
+            }
+            disconnect();
+        }
+
+        private void drain() {
+            boolean closing = closed;
+            startWriting();
+            try {
+                if (!closing) {
+                    byte[] event;
+                    while ((event = queue.poll()) != null) {
+                        out.write(event);
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // The client has disconnected, or the write was aborted
+                subscribers.remove(this);
+                closed = true;
+                closing = true;
+            }
+            if (closing) {
+                queue.clear();
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+            }
+            stopWriting();
+            if (closing) {
+                return;
+            }
+
+            scheduled.set(false);
+            // An event offered, or a disconnect, after the last check but before the flag was cleared would otherwise wait
+            if (closed || !queue.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void startWriting() {
+            synchronized (this) {
+                writer = Thread.currentThread();
+                writeStart = System.nanoTime();
+            }
+            writing.add(this);
+        }
+
+        private void stopWriting() {
+            writing.remove(this);
+            synchronized (this) {
+                writer = null;
+                // An abort which came after the stream was done with must not affect the next subscriber of this thread
+                Thread.interrupted();
+            }
+        }
+    }
+
+}
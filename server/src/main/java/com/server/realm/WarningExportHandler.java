@@ -0,0 +1,135 @@
+package com.server.realm;
+
+import com.server.metrics.Metrics;
+import com.server.storage.ExportFormat;
+import com.server.storage.MessageDatabase;
+import com.server.util.Config;
+import com.server.util.RequestUtil;
+import com.server.util.TimeUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import static com.server.util.ResponseUtil.openStream;
+import static com.server.util.ResponseUtil.sendBadRequest;
+import static com.server.util.ResponseUtil.sendResponse;
+
+/**
+ * Handles exports of the whole message table, or the messages sent within a time period, for analytics.
+ * <p>
+ * The format is chosen with the {@code format} parameter, either {@code ndjson} (the default) or {@code csv}, and the
+ * period with the optional {@code timestart} and {@code timeend} parameters, eg.
+ * {@code /warning/export?format=csv&timestart=2024-01-01T00:00:00.000Z&timeend=2024-02-01T00:00:00.000Z}.
+ * The messages are streamed from the database as they are read, see {@link MessageDatabase#exportMessages(ExportFormat, MessageDatabase.WriterOpener)}.
+ * Only {@code export.maxConcurrent} exports run at a time, others are answered with 503 Service Unavailable.
+ */
+public class WarningExportHandler implements HttpHandler {
+
+    private static final int MAX_CONCURRENT_EXPORTS = Config.getInt("export.maxConcurrent", 2);
+    private final MessageDatabase database;
+    private final Semaphore exports = new Semaphore(Math.max(1, MAX_CONCURRENT_EXPORTS));
+
+    public WarningExportHandler(MessageDatabase database) {
+        this.database = database;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendBadRequest(exchange, "Not supported");
+            return;
+        }
+
+        Map<String, String> parameters = RequestUtil.queryParameters(exchange.getRequestURI());
+        ExportFormat format;
+        try {
+            format = ExportFormat.valueOf(parameters.getOrDefault("format", "ndjson").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            sendBadRequest(exchange, "Invalid format, expected ndjson or csv");
+            return;
+        }
+        String timeStart = parameters.get("timestart");
+        String timeEnd = parameters.get("timeend");
+        if ((timeStart == null) != (timeEnd == null)) {
+            sendBadRequest(exchange, "Both timestart and timeend are required for a time period");
+            return;
+        }
+        long start = 0;
+        long end = 0;
+        if (timeStart != null) {
+            try {
+                start = TimeUtil.dateStringToEpochMilli(timeStart);
+                end = TimeUtil.dateStringToEpochMilli(timeEnd);
+            } catch (DateTimeException e) {
+                sendBadRequest(exchange, "Invalid date format");
+                return;
+            }
+        }
+
+        Metrics.setOperation("export_" + format.name().toLowerCase(Locale.ROOT));
+        if (!exports.tryAcquire()) {
+            exchange.getResponseHeaders().set("Retry-After", "60");
+            sendResponse(exchange, 503, "Too many exports running, try again later");
+            return;
+        }
+        ExportResponse response = new ExportResponse(exchange, format);
+        try {
+            if (timeStart != null) {
+                database.exportMessages(start, end, format, response);
+            } else {
+                database.exportMessages(format, response);
+            }
+            response.close();
+        } catch (SQLException e) {
+            if (response.isOpen()) {
+                // Headers have already been sent, so the only way to signal the failure is to cut the response short
+                exchange.close();
+            } else {
+                sendResponse(exchange, 500, "Error while exporting messages: " + e.getMessage());
+            }
+        } finally {
+            exports.release();
+        }
+    }
+
+    /**
+     * An export response body which sends its headers only once the export query has started.
+     */
+    private static class ExportResponse implements MessageDatabase.WriterOpener {
+
+        private final HttpExchange exchange;
+        private final ExportFormat format;
+        private Writer writer;
+
+        private ExportResponse(HttpExchange exchange, ExportFormat format) {
+            this.exchange = exchange;
+            this.format = format;
+        }
+
+        @Override
+        public Writer open() throws IOException {
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            writer = new BufferedWriter(new OutputStreamWriter(openStream(exchange, 200, format.contentType()), StandardCharsets.UTF_8));
+            return writer;
+        }
+
+        private boolean isOpen() {
+            return writer != null;
+        }
+
+        private void close() throws IOException {
+            writer.close();
+        }
+    }
+
+}
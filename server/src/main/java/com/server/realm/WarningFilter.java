@@ -0,0 +1,84 @@
+package com.server.realm;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Selects the warnings a {@link WarningBroadcaster} subscriber is interested in.
+ * The area uses the same coordinates as location queries, where the longitudes are "reversed",
+ * ie. {@code uplongitude} is the smaller value, see {@link com.server.storage.MessageDatabase}.
+ */
+final class WarningFilter {
+
+    static final WarningFilter ALL = new WarningFilter(null, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+
+    // Null for every danger type
+    private final Set<String> dangerTypes;
+    // NaN for no area
+    private final double upLatitude;
+    private final double downLatitude;
+    private final double upLongitude;
+    private final double downLongitude;
+
+    WarningFilter(Set<String> dangerTypes, double upLatitude, double downLatitude, double upLongitude, double downLongitude) {
+        this.dangerTypes = dangerTypes;
+        this.upLatitude = upLatitude;
+        this.downLatitude = downLatitude;
+        this.upLongitude = upLongitude;
+        this.downLongitude = downLongitude;
+    }
+
+    /**
+     * Creates a filter from the query parameters of a subscription.
+     * {@code dangertype} is a comma separated list of danger types, and the area is given with the
+     * {@code uplatitude}, {@code downlatitude}, {@code uplongitude} and {@code downlongitude} parameters, all or none of them.
+     *
+     * @param parameters the query parameters
+     * @param known      the valid danger types
+     * @return the filter
+     * @throws IllegalArgumentException if a parameter is invalid
+     */
+    static WarningFilter of(Map<String, String> parameters, Set<String> known) {
+        Set<String> dangerTypes = null;
+        String types = parameters.get("dangertype");
+        if (types != null) {
+            dangerTypes = Set.of(types.split(","));
+            if (!known.containsAll(dangerTypes)) {
+                throw new IllegalArgumentException("Invalid dangertype");
+            }
+        }
+
+        String[] area = {parameters.get("uplatitude"), parameters.get("downlatitude"),
+                parameters.get("uplongitude"), parameters.get("downlongitude")};
+        int given = 0;
+        for (String value : area) {
+            if (value != null) given++;
+        }
+        if (given == 0) {
+            return new WarningFilter(dangerTypes, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        }
+        if (given < area.length) {
+            throw new IllegalArgumentException("Incomplete area");
+        }
+        double[] limits = new double[area.length];
+        for (int i = 0; i < area.length; i++) {
+            limits[i] = Double.parseDouble(area[i]);
+            if (Double.isNaN(limits[i])) {
+                throw new IllegalArgumentException("Invalid area");
+            }
+        }
+        return new WarningFilter(dangerTypes, limits[0], limits[1], limits[2], limits[3]);
+    }
+
+    /**
+     * {@return whether a warning of the given type and location passes the filter}
+     */
+    boolean matches(String dangerType, double latitude, double longitude) {
+        if (dangerTypes != null && !dangerTypes.contains(dangerType)) {
+            return false;
+        }
+        // Comparisons with NaN are false, so without an area every location passes
+        return !(latitude > upLatitude || latitude < downLatitude || longitude < upLongitude || longitude > downLongitude);
+    }
+
+}
@@ -1,31 +1,47 @@
 package com.server.realm;
 
+import com.server.metrics.Metrics;
 import com.server.storage.MessageDatabase;
+import com.server.storage.Page;
+import com.server.storage.WeatherEnricher;
+import com.server.util.ConditionalRequest;
+import com.server.util.Config;
+import com.server.util.JsonStreamWriter;
+import com.server.util.RequestTooLargeException;
+import com.server.util.RequestUtil;
 import com.server.util.TimeUtil;
-import com.server.util.WeatherService;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
-import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.time.DateTimeException;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
 
 import static com.server.util.ResponseUtil.*;
 
 public class WarningHandler implements HttpHandler {
 
-    private static final List<String> DANGER_TYPES = List.of("Deer", "Reindeer", "Moose", "Other");
+    static final List<String> DANGER_TYPES = List.of("Deer", "Reindeer", "Moose", "Other");
+    private static final Set<String> QUERY_TYPES = Set.of("user", "time", "location", "changes");
+    // A query with paging parameters returns at most this many messages per page, see Page. Without them it returns everything.
+    private static final int DEFAULT_LIMIT = Config.getInt("query.defaultLimit", 1000);
+    private static final int MAX_LIMIT = Config.getInt("query.maxLimit", 10000);
     private final MessageDatabase database;
+    private final WeatherEnricher weatherEnricher;
+    private final WarningBroadcaster broadcaster;
 
-    public WarningHandler(MessageDatabase database) {
+    public WarningHandler(MessageDatabase database, WeatherEnricher weatherEnricher, WarningBroadcaster broadcaster) {
         this.database = database;
+        this.weatherEnricher = weatherEnricher;
+        this.broadcaster = broadcaster;
     }
 
     @Override
@@ -42,20 +58,32 @@ public class WarningHandler implements HttpHandler {
     }
 
     /**
-     * Handles a GET request to fetch all messages.
+     * Handles a GET request to fetch all messages, or one page of them
+     * selected with the optional {@code after} and {@code limit} query parameters.
+     * <p>
+     * Clients polling for changes can send the ETag or Last-Modified of their previous response back, and get
+     * a 304 Not Modified response without the database being queried if no message has been added or changed since.
      */
     private void handleGet(HttpExchange exchange) throws IOException {
-        try {
-            JSONArray array = database.getMessages();
-            if (array.isEmpty()) {
-                sendNoContent(exchange);
-                return;
-            }
+        Metrics.setOperation("list");
+        // Read before the query, so that a change committed during the query is never labelled as seen
+        String version = database.getDataVersion();
+        long lastModified = database.getLastModified();
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        if (ConditionalRequest.isNotModified(exchange, version, lastModified)) {
+            sendNotModified(exchange);
+            return;
+        }
 
-            sendJSONResponse(exchange, array.toString().getBytes());
-        } catch (SQLException e) {
-            sendResponse(exchange, 500, "Error while fetching messages: " + e.getMessage());
+        Map<String, String> parameters = RequestUtil.queryParameters(exchange.getRequestURI());
+        Page page;
+        try {
+            page = pageOf(parameters.get("after"), parameters.get("limit"));
+        } catch (IllegalArgumentException e) {
+            sendBadRequest(exchange, "Invalid paging parameters");
+            return;
         }
+        sendJSONStream(exchange, opener -> database.streamMessages(page, opener));
     }
 
     /**
@@ -65,16 +93,37 @@ public class WarningHandler implements HttpHandler {
      * @throws IOException If an I/O error occurs
      */
     private void handlePost(HttpExchange exchange) throws IOException {
+        JSONObject json;
+        try {
+            json = RequestUtil.readJsonObject(exchange);
+        } catch (RequestTooLargeException e) {
+            sendResponse(exchange, 413, "Request body too large");
+            return;
+        } catch (Exception e) {
+            sendBadRequest(exchange, "Invalid JSON");
+            return;
+        }
         try {
-            JSONObject json = new JSONObject(new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)).lines().collect(Collectors.joining()));
             if (json.has("query")) {
                 String queryType = json.getString("query");
+                // Only known query types get their own label, the rest are answered with 400 anyway
+                Metrics.setOperation(QUERY_TYPES.contains(queryType) ? "query_" + queryType : "query_invalid");
+                Page page;
+                try {
+                    page = pageOf(parameter(json, "after"), parameter(json, "limit"));
+                } catch (IllegalArgumentException e) {
+                    sendBadRequest(exchange, "Invalid paging parameters");
+                    return;
+                }
+
                 if ("user".equals(queryType) && json.has("nickname")) {
-                    queryByNickname(exchange, json);
+                    queryByNickname(exchange, json, page);
                 } else if ("time".equals(queryType) && json.has("timestart") && json.has("timeend")) {
-                    queryByTimePeriod(exchange, json);
+                    queryByTimePeriod(exchange, json, page);
                 } else if ("location".equals(queryType) && isLocationQuery(json)) {
-                    queryByLocation(exchange, json);
+                    queryByLocation(exchange, json, page);
+                } else if ("changes".equals(queryType)) {
+                    queryChanges(exchange, json, page);
                 } else {
                     sendBadRequest(exchange, "Invalid query type or missing parameters");
                 }
@@ -91,25 +140,44 @@ public class WarningHandler implements HttpHandler {
         return json.has("uplongitude") && json.has("uplatitude") && json.has("downlongitude") && json.has("downlatitude");
     }
 
+    /**
+     * Creates the page of a query from its optional paging parameters.
+     * Without either parameter the query is not paged and returns every message, as it did before paging existed,
+     * so that a client which does not page is never handed a silently truncated result. Otherwise the page starts
+     * from the first message without an {@code after} id, and the limit is capped at {@code query.maxLimit}.
+     *
+     * @param after The id after which the page starts, or null
+     * @param limit The maximum amount of messages, or null for {@code query.defaultLimit}
+     * @return The page
+     * @throws IllegalArgumentException If a parameter is not a number or is out of range
+     */
+    private static Page pageOf(String after, String limit) {
+        if (after == null && limit == null) {
+            return Page.ALL;
+        }
+        long afterId = after == null ? 0 : Long.parseLong(after);
+        int size = limit == null ? DEFAULT_LIMIT : Integer.parseInt(limit);
+        if (size < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        return new Page(afterId, Math.min(size, MAX_LIMIT));
+    }
+
+    private static String parameter(JSONObject json, String key) {
+        return json.has(key) ? json.get(key).toString() : null;
+    }
+
     /**
      * Handles a POST request to query messages by nickname.
      *
      * @param exchange The HttpExchange object
      * @param json     The JSON request
+     * @param page     The page of the results to send
      * @throws IOException If an I/O error occurs
      */
-    private void queryByNickname(HttpExchange exchange, JSONObject json) throws IOException {
-        try {
-            String nickname = json.getString("nickname");
-            JSONArray array = database.getMessages(nickname);
-            if (array.isEmpty()) {
-                sendNoContent(exchange);
-            } else {
-                sendJSONResponse(exchange, array.toString().getBytes());
-            }
-        } catch (SQLException e) {
-            sendResponse(exchange, 500, "Error while fetching messages: " + e.getMessage());
-        }
+    private void queryByNickname(HttpExchange exchange, JSONObject json, Page page) throws IOException {
+        String nickname = json.getString("nickname");
+        sendJSONStream(exchange, opener -> database.streamMessages(nickname, page, opener));
     }
 
     /**
@@ -117,108 +185,158 @@ public class WarningHandler implements HttpHandler {
      *
      * @param exchange The HttpExchange object
      * @param json     The JSON request
+     * @param page     The page of the results to send
      * @throws IOException If an I/O error occurs
      */
-    private void queryByTimePeriod(HttpExchange exchange, JSONObject json) throws IOException {
+    private void queryByTimePeriod(HttpExchange exchange, JSONObject json, Page page) throws IOException {
+        long timeStart;
+        long timeEnd;
         try {
-            long timeStart = TimeUtil.dateStringToEpochMilli(json.getString("timestart"));
-            long timeEnd = TimeUtil.dateStringToEpochMilli(json.getString("timeend"));
-            JSONArray array = database.getMessages(timeStart, timeEnd);
-            if (array.isEmpty()) {
-                sendNoContent(exchange);
-            }
-            sendJSONResponse(exchange, array.toString().getBytes());
+            timeStart = TimeUtil.dateStringToEpochMilli(json.getString("timestart"));
+            timeEnd = TimeUtil.dateStringToEpochMilli(json.getString("timeend"));
         } catch (DateTimeException e) {
             sendBadRequest(exchange, "Invalid date format");
-        } catch (SQLException e) {
-            sendResponse(exchange, 500, "Error while fetching messages: " + e.getMessage());
+            return;
         }
+        sendJSONStream(exchange, opener -> database.streamMessages(timeStart, timeEnd, page, opener));
     }
 
     /**
-     * Handles a POST request to query messages by location.
+     * Handles a POST request to query messages by location, optionally limited to a time period
+     * with {@code timestart} and {@code timeend}.
      *
      * @param exchange The HttpExchange object
      * @param json     The JSON request
+     * @param page     The page of the results to send
      * @throws IOException If an I/O error occurs
      */
-    private void queryByLocation(HttpExchange exchange, JSONObject json) throws IOException {
+    private void queryByLocation(HttpExchange exchange, JSONObject json, Page page) throws IOException {
+        double upLongitude = json.getDouble("uplongitude");
+        double upLatitude = json.getDouble("uplatitude");
+        double downLongitude = json.getDouble("downlongitude");
+        double downLatitude = json.getDouble("downlatitude");
+        if (!json.has("timestart") && !json.has("timeend")) {
+            sendJSONStream(exchange, opener -> database.streamMessages(upLatitude, downLatitude, upLongitude, downLongitude, page, opener));
+            return;
+        }
+
+        long timeStart;
+        long timeEnd;
         try {
-            double upLongitude = json.getDouble("uplongitude");
-            double upLatitude = json.getDouble("uplatitude");
-            double downLongitude = json.getDouble("downlongitude");
-            double downLatitude = json.getDouble("downlatitude");
+            timeStart = TimeUtil.dateStringToEpochMilli(json.getString("timestart"));
+            timeEnd = TimeUtil.dateStringToEpochMilli(json.getString("timeend"));
+        } catch (DateTimeException e) {
+            sendBadRequest(exchange, "Invalid date format");
+            return;
+        }
+        sendJSONStream(exchange, opener -> database.streamMessages(upLatitude, downLatitude, upLongitude, downLongitude,
+                timeStart, timeEnd, page, opener));
+    }
 
-            JSONArray array = database.getMessages(upLatitude, downLatitude, upLongitude, downLongitude);
-            if (array.isEmpty()) {
-                sendNoContent(exchange);
+    /**
+     * Handles a POST request to query the messages added or changed since the client's last sync.
+     * A numeric {@code since} is the greatest {@code seq} of a previous response, and pages through the changes after it.
+     * A date string {@code since} returns the messages added or changed on the server since then, for clients without a sequence number yet.
+     * Without {@code since} every message is returned, in the order of their latest change.
+     *
+     * @param exchange The HttpExchange object
+     * @param json     The JSON request
+     * @param page     The page of the results to send, whose {@code after} is overridden by a numeric {@code since}
+     * @throws IOException If an I/O error occurs
+     */
+    private void queryChanges(HttpExchange exchange, JSONObject json, Page page) throws IOException {
+        Object since = json.opt("since");
+        if (since instanceof String) {
+            long sinceTime;
+            try {
+                sinceTime = TimeUtil.dateStringToEpochMilli((String) since);
+            } catch (DateTimeException e) {
+                sendBadRequest(exchange, "Invalid date format");
+                return;
             }
-            sendJSONResponse(exchange, array.toString().getBytes());
-        } catch (SQLException e) {
-            sendResponse(exchange, 500, "Error while fetching messages: " + e.getMessage());
+            sendJSONStream(exchange, opener -> database.streamChanges(sinceTime, page, opener));
+            return;
         }
+
+        Page changes;
+        try {
+            // The sequence number takes the place of the after id, so a sync is paged like any other paged query
+            changes = since == null ? page : pageOf(since.toString(), parameter(json, "limit"));
+        } catch (IllegalArgumentException e) {
+            sendBadRequest(exchange, "Invalid paging parameters");
+            return;
+        }
+        sendJSONStream(exchange, opener -> database.streamChanges(changes, opener));
     }
 
     /**
-     * Sends a JSON response to the client.
+     * Streams the result of a message query to the client as a JSON array
+     * using chunked transfer encoding, or sends a 204 No Content response if the result is empty.
      *
      * @param exchange The HttpExchange object
-     * @param json     The JSON response
+     * @param query    The query to stream
      * @throws IOException If an I/O error occurs
      */
-    private void sendJSONResponse(HttpExchange exchange, byte[] json) throws IOException {
-        exchange.setAttribute("content-type", "application/json");
-        exchange.sendResponseHeaders(200, json.length);
-        exchange.getResponseBody().write(json);
-        exchange.getResponseBody().close();
+    private void sendJSONStream(HttpExchange exchange, MessageQuery query) throws IOException {
+        JsonResponse response = new JsonResponse(exchange);
+        try {
+            if (query.stream(response) == 0) {
+                sendNoContent(exchange);
+            } else {
+                response.close();
+            }
+        } catch (SQLException e) {
+            if (response.isOpen()) {
+                // Headers have already been sent, so the only way to signal the failure is to cut the response short
+                exchange.close();
+            } else {
+                sendResponse(exchange, 500, "Error while fetching messages: " + e.getMessage());
+            }
+        }
     }
 
     /**
      * Handles a POST request to submit or update a message.
      */
     private void handleMessage(HttpExchange exchange, JSONObject json) throws IOException {
-        // Check if the request is a submission or an update
-        boolean isUpdate = json.has("id");
         try {
-            String nickname = json.getString("nickname");
-            double latitude = json.getDouble("latitude");
-            double longitude = json.getDouble("longitude");
-            long sent = TimeUtil.dateStringToEpochMilli(json.getString("sent"));
-            String dangerType = json.getString("dangertype");
+            WarningMessage warning = new WarningMessage(json);
             String username = exchange.getPrincipal().getUsername();
+            Metrics.setOperation(warning.isUpdate() ? "update" : "submit");
 
-            if (!DANGER_TYPES.contains(dangerType)) {
+            if (!DANGER_TYPES.contains(warning.dangerType)) {
                 sendBadRequest(exchange, "Invalid dangertype");
                 return;
             }
 
-            String areaCode = null;
-            String phoneNumber = null;
-            String weather = null;
-            if (json.has("areacode")) {
-                areaCode = json.getString("areacode");
-            }
-            if (json.has("phonenumber")) {
-                phoneNumber = json.getString("phonenumber");
-            }
-            if (json.has("weather")) {
-                weather = WeatherService.getWeatherInfo(latitude, longitude);
-            }
-
             /*
              * If the request is an update, check if the user is the sender of the message.
              * If is, update the message. Otherwise, send a 403 Forbidden response.
              */
-            if (isUpdate) {
-                int id = json.getInt("id");
+            if (warning.isUpdate()) {
+                int id = warning.id;
                 if (!database.isSender(id, username)) {
                     sendResponse(exchange, 403, "You are not the sender of this message!");
                     return;
                 }
-                String updateReason = json.getString("updatereason");
-                database.updateMessage(id, nickname, latitude, longitude, sent, dangerType, areaCode, phoneNumber, weather, updateReason, System.currentTimeMillis());
+                long modified = System.currentTimeMillis();
+                // The weather is filled in later by the enricher, so the message is stored without it for now
+                database.updateMessage(id, warning.nickname, warning.latitude, warning.longitude, warning.sent,
+                        warning.dangerType, warning.areaCode, warning.phoneNumber, null, warning.updateReason, modified);
+                if (warning.withWeather) {
+                    weatherEnricher.enqueue(id, warning.latitude, warning.longitude);
+                }
+                JSONObject message = pushedMessage(id, warning);
+                message.put("updatereason", warning.updateReason);
+                message.put("modified", TimeUtil.epochMilliToDateString(modified));
+                broadcaster.publish("update", message);
             } else {
-                database.submitMessage(nickname, latitude, longitude, sent, dangerType, areaCode, phoneNumber, weather, username);
+                int id = database.submitMessage(warning.nickname, warning.latitude, warning.longitude, warning.sent,
+                        warning.dangerType, warning.areaCode, warning.phoneNumber, null, username);
+                if (warning.withWeather) {
+                    weatherEnricher.enqueue(id, warning.latitude, warning.longitude);
+                }
+                broadcaster.publish("warning", pushedMessage(id, warning));
             }
             exchange.sendResponseHeaders(200, -1);
             exchange.getResponseBody().close();
@@ -226,11 +344,59 @@ public class WarningHandler implements HttpHandler {
             sendBadRequest(exchange, "Invalid date format");
         } catch (SQLException e) {
             sendResponse(exchange, 500, "Database error: " + e.getMessage());
-        } catch (WeatherService.WeatherServiceException e) {
-            sendResponse(exchange, 500, "Error while fetching weather data: " + e.getMessage());
         } catch (Exception e) {
             sendBadRequest(exchange, "Invalid JSON");
         }
     }
 
+    /**
+     * Creates a stored message in the format of query results, for pushing it to subscribers.
+     * The weather is not included, since it is filled in later.
+     */
+    static JSONObject pushedMessage(int id, WarningMessage warning) {
+        JSONObject message = new JSONObject();
+        message.put("id", id);
+        message.put("nickname", warning.nickname);
+        message.put("latitude", warning.latitude);
+        message.put("longitude", warning.longitude);
+        message.put("sent", TimeUtil.epochMilliToDateString(warning.sent));
+        message.put("dangertype", warning.dangerType);
+        message.putOpt("areacode", warning.areaCode);
+        message.putOpt("phonenumber", warning.phoneNumber);
+        return message;
+    }
+
+    @FunctionalInterface
+    private interface MessageQuery {
+        int stream(MessageDatabase.JsonOpener opener) throws SQLException, IOException;
+    }
+
+    /**
+     * A JSON response body which sends its headers only when the first message is written.
+     */
+    private static class JsonResponse implements MessageDatabase.JsonOpener {
+
+        private final HttpExchange exchange;
+        private JsonStreamWriter writer;
+
+        private JsonResponse(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public JsonStreamWriter open() throws IOException {
+            OutputStream body = openStream(exchange, 200, "application/json");
+            writer = new JsonStreamWriter(new BufferedWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8)));
+            return writer;
+        }
+
+        private boolean isOpen() {
+            return writer != null;
+        }
+
+        private void close() throws IOException {
+            writer.close();
+        }
+    }
+
 }
@@ -0,0 +1,52 @@
+package com.server.realm;
+
+import com.server.util.TimeUtil;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.time.DateTimeException;
+
+/**
+ * A warning submitted or updated by a client, as read from the request body.
+ */
+final class WarningMessage {
+
+    // Null for new warnings
+    final Integer id;
+    final String nickname;
+    final double latitude;
+    final double longitude;
+    final long sent;
+    final String dangerType;
+    final String areaCode;
+    final String phoneNumber;
+    // Whether the client asked for the weather, which is then filled in by the enricher
+    final boolean withWeather;
+    // Only for updates
+    final String updateReason;
+
+    /**
+     * Reads a warning from its JSON form.
+     *
+     * @param json the warning
+     * @throws JSONException     if a field is missing or has the wrong type
+     * @throws DateTimeException if the sent time is not a valid date
+     */
+    WarningMessage(JSONObject json) {
+        this.id = json.has("id") ? json.getInt("id") : null;
+        this.nickname = json.getString("nickname");
+        this.latitude = json.getDouble("latitude");
+        this.longitude = json.getDouble("longitude");
+        this.sent = TimeUtil.dateStringToEpochMilli(json.getString("sent"));
+        this.dangerType = json.getString("dangertype");
+        this.areaCode = json.has("areacode") ? json.getString("areacode") : null;
+        this.phoneNumber = json.has("phonenumber") ? json.getString("phonenumber") : null;
+        this.withWeather = json.has("weather");
+        this.updateReason = id != null ? json.getString("updatereason") : null;
+    }
+
+    boolean isUpdate() {
+        return id != null;
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.server.realm;
+
+import com.server.util.RequestUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+
+import static com.server.util.ResponseUtil.sendBadRequest;
+
+/**
+ * Handles subscriptions to the Server-Sent Events stream of new and updated warnings.
+ * <p>
+ * The handler only sends the response headers and hands the open response over to the {@link WarningBroadcaster},
+ * so the request thread is released right away and an idle subscriber costs no thread at all.
+ * The warnings can be filtered with the same parameters as location queries, and with a comma separated
+ * list of danger types, eg. {@code /warning/stream?dangertype=Moose,Deer}.
+ */
+public class WarningStreamHandler implements HttpHandler {
+
+    // Tells clients how long to wait before reconnecting, and makes sure the headers are flushed right away
+    private static final byte[] PREAMBLE = "retry: 5000\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final WarningBroadcaster broadcaster;
+
+    public WarningStreamHandler(WarningBroadcaster broadcaster) {
+        this.broadcaster = broadcaster;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendBadRequest(exchange, "Not supported");
+            return;
+        }
+
+        Map<String, String> parameters = RequestUtil.queryParameters(exchange.getRequestURI());
+        WarningFilter filter;
+        try {
+            filter = WarningFilter.of(parameters, Set.copyOf(WarningHandler.DANGER_TYPES));
+        } catch (IllegalArgumentException e) {
+            sendBadRequest(exchange, "Invalid filter parameters");
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        // Not compressed like other responses, since every event must be flushed as is, and a compressor per subscriber
+        // would cost far more memory than the small events would save in bandwidth
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream body = exchange.getResponseBody();
+        body.write(PREAMBLE);
+        body.flush();
+        if (!broadcaster.subscribe(body, exchange::close, filter)) {
+            // The status has already been sent, so the client sees an ended stream and retries later
+            exchange.close();
+        }
+    }
+
+}
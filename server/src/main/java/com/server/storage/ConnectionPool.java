@@ -0,0 +1,164 @@
+package com.server.storage;
+
+import org.sqlite.SQLiteConfig;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A pool of SQLite connections to a single database file running in WAL mode.
+ * <p>
+ * WAL mode lets readers and a writer work concurrently, but SQLite still only allows one writer at a time.
+ * The pool therefore holds one dedicated writer connection, guarded by a lock, and a bounded
+ * set of read-only connections which are handed out to one thread at a time.
+ * Each connection keeps its own cache of prepared statements, see {@link PooledConnection}.
+ * <p>
+ * Long running reads, like exports, get a connection of their own with {@link #readDetached(SQLFunction)},
+ * so that they do not hold on to a pooled reader for minutes.
+ */
+class ConnectionPool implements AutoCloseable {
+
+    private final PooledConnection writer;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final BlockingQueue<PooledConnection> readers;
+    private final List<PooledConnection> allReaders = new ArrayList<>();
+    private final long acquireTimeoutMs;
+    private final String url;
+    private final SQLiteConfig readerConfig = new SQLiteConfig();
+
+    /**
+     * Opens the writer connection and the given amount of reader connections.
+     *
+     * @param path             the path of the database file
+     * @param readerCount      the amount of read-only connections to open
+     * @param busyTimeoutMs    how long SQLite should wait for a locked database before failing
+     * @param acquireTimeoutMs how long to wait for a free reader connection before failing
+     * @param maxStatements    the maximum amount of prepared statements to cache per connection
+     * @throws SQLException if a connection could not be opened
+     */
+    ConnectionPool(String path, int readerCount, int busyTimeoutMs, long acquireTimeoutMs, int maxStatements) throws SQLException {
+        this.url = "jdbc:sqlite:" + path;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.readers = new ArrayBlockingQueue<>(Math.max(1, readerCount));
+
+        SQLiteConfig writerConfig = new SQLiteConfig();
+        writerConfig.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        // Writes are acknowledged only after a commit, so every commit has to be synced to disk
+        writerConfig.setSynchronous(SQLiteConfig.SynchronousMode.FULL);
+        writerConfig.setBusyTimeout(busyTimeoutMs);
+        this.writer = new PooledConnection(writerConfig.createConnection(url), maxStatements);
+
+        try {
+            // Readers are opened after the writer so that the database is already in WAL mode
+            readerConfig.setReadOnly(true);
+            readerConfig.setBusyTimeout(busyTimeoutMs);
+            for (int i = 0; i < Math.max(1, readerCount); i++) {
+                PooledConnection reader = new PooledConnection(readerConfig.createConnection(url), maxStatements);
+                allReaders.add(reader);
+                readers.add(reader);
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the given function with a read-only connection.
+     * The calling thread has exclusive use of the connection until the function returns.
+     *
+     * @param function the function to run
+     * @param <T>      the type of the result
+     * @return the result of the function
+     * @throws SQLException if the function fails, or no connection became available in time
+     */
+    <T> T read(SQLFunction<T> function) throws SQLException {
+        PooledConnection connection = acquireReader();
+        try {
+            return function.apply(connection);
+        } finally {
+            readers.add(connection);
+        }
+    }
+
+    /**
+     * Runs the given function with a new read-only connection, which is closed once the function returns.
+     * The connection is not taken from the pool, so the function can take as long as it needs without
+     * making other readers wait.
+     *
+     * @param function the function to run
+     * @param <T>      the type of the result
+     * @return the result of the function
+     * @throws SQLException if the function fails, or the connection could not be opened
+     */
+    <T> T readDetached(SQLFunction<T> function) throws SQLException {
+        PooledConnection connection = new PooledConnection(readerConfig.createConnection(url), 1);
+        try {
+            return function.apply(connection);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Runs the given function with the writer connection.
+     * Only one thread at a time can hold the writer connection.
+     *
+     * @param function the function to run
+     * @param <T>      the type of the result
+     * @return the result of the function
+     * @throws SQLException if the function fails
+     */
+    <T> T write(SQLFunction<T> function) throws SQLException {
+        writeLock.lock();
+        try {
+            return function.apply(writer);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private PooledConnection acquireReader() throws SQLException {
+        try {
+            PooledConnection connection = readers.poll(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+            if (connection == null) {
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+            return connection;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (PooledConnection reader : allReaders) {
+            reader.close();
+        }
+        writeLock.lock();
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * A function that operates on a database connection.
+     *
+     * @param <T> the type of the result
+     */
+    @FunctionalInterface
+    interface SQLFunction<T> {
+        T apply(PooledConnection connection) throws SQLException;
+    }
+
+}
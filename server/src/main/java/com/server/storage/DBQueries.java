@@ -1,7 +1,18 @@
 package com.server.storage;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
 public class DBQueries {
 
+    // A single lookup at the end of the seq index
+    private static final String NEXT_SEQ = "(SELECT IFNULL(MAX(seq), 0) + 1 FROM messages)";
+    // The server's clock in epoch milliseconds, exact unlike julianday('now')
+    private static final String NOW = "(CAST(strftime('%s', 'now') AS INTEGER) * 1000 + CAST(substr(strftime('%f', 'now'), 4) AS INTEGER))";
+
     public static final String CREATE_TABLE_USERS = "CREATE TABLE IF NOT EXISTS users ("
             + "username TEXT PRIMARY KEY NOT NULL,"
             + "password TEXT NOT NULL,"
@@ -24,15 +35,122 @@ public class DBQueries {
             + "FOREIGN KEY(sender) REFERENCES users(username)"
             + ")";
 
+    /*
+     * R*Tree index over the message coordinates, kept in sync with the messages table by triggers.
+     * Each message is stored as a zero-size box, and the index stores its bounds as 32-bit floats.
+     */
+    public static final String CREATE_TABLE_MESSAGES_RTREE = "CREATE VIRTUAL TABLE IF NOT EXISTS messages_rtree USING rtree("
+            + "id,"
+            + "minlat, maxlat,"
+            + "minlon, maxlon"
+            + ")";
+    public static final String CREATE_TRIGGER_RTREE_INSERT = "CREATE TRIGGER IF NOT EXISTS messages_rtree_insert AFTER INSERT ON messages BEGIN "
+            + "INSERT INTO messages_rtree VALUES (new.id, new.latitude, new.latitude, new.longitude, new.longitude); "
+            + "END";
+    public static final String CREATE_TRIGGER_RTREE_UPDATE = "CREATE TRIGGER IF NOT EXISTS messages_rtree_update AFTER UPDATE OF latitude, longitude ON messages BEGIN "
+            + "UPDATE messages_rtree SET minlat = new.latitude, maxlat = new.latitude, minlon = new.longitude, maxlon = new.longitude WHERE id = new.id; "
+            + "END";
+    public static final String CREATE_TRIGGER_RTREE_DELETE = "CREATE TRIGGER IF NOT EXISTS messages_rtree_delete AFTER DELETE ON messages BEGIN "
+            + "DELETE FROM messages_rtree WHERE id = old.id; "
+            + "END";
+    public static final String FILL_MESSAGES_RTREE = "INSERT OR REPLACE INTO messages_rtree SELECT id, latitude, latitude, longitude, longitude FROM messages";
+    public static final String CREATE_INDEX_MESSAGES_SENT = "CREATE INDEX IF NOT EXISTS messages_sent ON messages (sent)";
+    public static final String CREATE_INDEX_MESSAGES_NICKNAME = "CREATE INDEX IF NOT EXISTS messages_nickname ON messages (nickname)";
+    /*
+     * Every insert and update of a message gives it the next sequence number, so the messages changed after a client's
+     * last sync point are the ones with a greater number. The writer connection serializes all writes, so the numbers are unique.
+     */
+    public static final String ADD_COLUMN_MESSAGES_SEQ = "ALTER TABLE messages ADD COLUMN seq INTEGER";
+    public static final String FILL_MESSAGES_SEQ = "UPDATE messages SET seq = id";
+    public static final String CREATE_INDEX_MESSAGES_SEQ = "CREATE UNIQUE INDEX IF NOT EXISTS messages_seq ON messages (seq)";
+    public static final String CREATE_INDEX_MESSAGES_MODIFIED = "CREATE INDEX IF NOT EXISTS messages_modified ON messages (modified)";
+    /*
+     * Every change also records the server's time, since the client's sent and modified times can be anything.
+     * Existing messages get the latest of the two, which is what the changes feed used to go by.
+     */
+    public static final String ADD_COLUMN_MESSAGES_CHANGED = "ALTER TABLE messages ADD COLUMN changed INTEGER";
+    public static final String FILL_MESSAGES_CHANGED = "UPDATE messages SET changed = MAX(sent, IFNULL(modified, 0))";
+    public static final String CREATE_INDEX_MESSAGES_CHANGED = "CREATE INDEX IF NOT EXISTS messages_changed ON messages (changed)";
+    public static final String DROP_INDEX_MESSAGES_MODIFIED = "DROP INDEX IF EXISTS messages_modified";
+    public static final String GET_SCHEMA_VERSION = "PRAGMA user_version";
+    // PRAGMA statements cannot take parameters, the version is appended by SchemaMigrations
+    public static final String SET_SCHEMA_VERSION = "PRAGMA user_version = ";
+
     public static final String INSERT_DUMMY_USER = "INSERT INTO users (username, password, email) VALUES ('dummy', 'password', 'dummy@example.com')";
     public static final String CHECK_CREDENTIALS = "SELECT * FROM users WHERE username = ?";
     public static final String INSERT_USER = "INSERT INTO users (username, password, email) VALUES (?, ?, ?)";
     public static final String CHECK_USER_EXISTS = "SELECT * FROM users WHERE username = ?";
-    public static final String INSERT_MESSAGE = "INSERT INTO messages (nickname, latitude, longitude, sent, dangertype, areacode, phonenumber, weather, sender) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
-    public static final String UPDATE_MESSAGE = "UPDATE messages SET nickname = ?, latitude = ?, longitude = ?, sent = ?, dangertype = ?, areacode = ?, phonenumber = ?, weather = ?, updatereason = ?, modified = ? WHERE id = ?";
-    public static final String GET_ALL_MESSAGES = "SELECT * FROM messages";
-    public static final String GET_MESSAGES_BY_NICKNAME = "SELECT * FROM messages WHERE nickname = ?";
-    public static final String GET_MESSAGES_BY_TIME = "SELECT * FROM messages WHERE sent >= ? AND sent <= ?";
-    public static final String GET_MESSAGES_BY_AREA = "SELECT * FROM messages WHERE latitude <= ? AND latitude >= ? AND longitude >= ? AND longitude <= ?";
-    public static final String IS_SENDER = "SELECT * FROM messages WHERE id = ? AND sender = ?";
+    public static final String INSERT_MESSAGE = "INSERT INTO messages (nickname, latitude, longitude, sent, dangertype, areacode, phonenumber, weather, sender, seq, changed) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, " + NEXT_SEQ + ", " + NOW + ")";
+    public static final String UPDATE_MESSAGE = "UPDATE messages SET nickname = ?, latitude = ?, longitude = ?, sent = ?, dangertype = ?, areacode = ?, phonenumber = ?, weather = ?, updatereason = ?, modified = ?, "
+            + "seq = " + NEXT_SEQ + ", changed = " + NOW + " WHERE id = ?";
+    public static final String UPDATE_WEATHER = "UPDATE messages SET weather = ?, seq = " + NEXT_SEQ + ", changed = " + NOW + " "
+            + "WHERE id = ? AND latitude = ? AND longitude = ?";
+    /*
+     * The message queries return one page in id order, the last two parameters are the id after which the page starts
+     * and the maximum amount of messages, where -1 means no limit.
+     */
+    public static final String GET_ALL_MESSAGES = "SELECT * FROM messages WHERE id > ? ORDER BY id LIMIT ?";
+    // The nickname index includes the rowid, so the page is read straight from the index in id order
+    public static final String GET_MESSAGES_BY_NICKNAME = "SELECT * FROM messages WHERE nickname = ? AND id > ? ORDER BY id LIMIT ?";
+    /*
+     * Without the hint SQLite prefers walking the table in id order to avoid sorting, which reads most of the table
+     * for a narrow time period. Sorting the messages inside the period is bounded by the period instead.
+     */
+    public static final String GET_MESSAGES_BY_TIME = "SELECT * FROM messages INDEXED BY messages_sent "
+            + "WHERE sent >= ? AND sent <= ? AND id > ? ORDER BY id LIMIT ?";
+    /*
+     * The R*Tree finds the candidates, and the exact coordinates are checked again
+     * because the index rounds its float bounds outwards.
+     */
+    public static final String GET_MESSAGES_BY_AREA = "SELECT m.* FROM messages_rtree r JOIN messages m ON m.id = r.id "
+            + "WHERE r.minlat <= ?1 AND r.maxlat >= ?2 AND r.maxlon >= ?3 AND r.minlon <= ?4 "
+            + "AND m.latitude <= ?1 AND m.latitude >= ?2 AND m.longitude >= ?3 AND m.longitude <= ?4 "
+            + "AND m.id > ?5 ORDER BY m.id LIMIT ?6";
+    public static final String GET_MESSAGES_BY_AREA_AND_TIME = "SELECT m.* FROM messages_rtree r JOIN messages m ON m.id = r.id "
+            + "WHERE r.minlat <= ?1 AND r.maxlat >= ?2 AND r.maxlon >= ?3 AND r.minlon <= ?4 "
+            + "AND m.latitude <= ?1 AND m.latitude >= ?2 AND m.longitude >= ?3 AND m.longitude <= ?4 "
+            + "AND m.sent >= ?5 AND m.sent <= ?6 AND m.id > ?7 ORDER BY m.id LIMIT ?8";
+    // Fills the recent message cache, newest first so that a full cache ends up with the newest messages
+    public static final String GET_RECENT_MESSAGES = "SELECT * FROM messages INDEXED BY messages_sent WHERE sent >= ? ORDER BY sent DESC LIMIT ?";
+    /*
+     * The changes feed pages by sequence number instead of id, so the page parameters are the last seen sequence number
+     * and the limit. The timestamp variant is for clients without a sync point yet. It finds the messages from the index
+     * of the server's change times first, since walking the seq index would scan every older message when the time is recent.
+     */
+    public static final String GET_CHANGES = "SELECT * FROM messages WHERE seq > ? ORDER BY seq LIMIT ?";
+    public static final String GET_CHANGES_BY_TIME = "SELECT * FROM messages INDEXED BY messages_changed "
+            + "WHERE changed >= ? AND seq > ? ORDER BY seq LIMIT ?";
+    /*
+     * Exports are not paged. A time period is read in sent order straight from the index, which stores the rowid
+     * after the time, so that the rows can be streamed without sorting the whole period first.
+     */
+    public static final String EXPORT_MESSAGES = "SELECT * FROM messages ORDER BY id";
+    public static final String EXPORT_MESSAGES_BY_TIME = "SELECT * FROM messages INDEXED BY messages_sent "
+            + "WHERE sent >= ? AND sent <= ? ORDER BY sent, id";
+    public static final String IS_SENDER = "SELECT 1 FROM messages WHERE id = ? AND sender = ?";
+
+    // Built last, after every constant above has been initialized
+    private static final Map<String, String> NAMES = names();
+
+    /**
+     * {@return the name of the constant holding the given SQL in lower case, eg. {@code get_all_messages}, for metrics}
+     */
+    static String nameOf(String sql) {
+        return NAMES.getOrDefault(sql, "other");
+    }
+
+    private static Map<String, String> names() {
+        Map<String, String> names = new HashMap<>();
+        for (Field field : DBQueries.class.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == String.class) {
+                try {
+                    names.put((String) field.get(null), field.getName().toLowerCase(Locale.ROOT));
+                } catch (IllegalAccessException e) {
+                    // Public fields are always accessible
+                }
+            }
+        }
+        return names;
+    }
 }
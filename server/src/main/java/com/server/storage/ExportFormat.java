@@ -0,0 +1,119 @@
+package com.server.storage;
+
+import com.server.util.JsonStreamWriter;
+import com.server.util.TimeUtil;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The formats messages can be exported in, see {@link MessageDatabase#exportMessages(ExportFormat, MessageDatabase.WriterOpener)}.
+ */
+public enum ExportFormat {
+
+    /**
+     * Newline delimited JSON, one message per line in the same form as query results.
+     */
+    NDJSON("application/x-ndjson") {
+        @Override
+        RowWriter open(Writer out) {
+            JsonStreamWriter writer = new JsonStreamWriter(out);
+            return rs -> {
+                MessageDatabase.writeMessage(rs, writer, false);
+                writer.lineBreak();
+            };
+        }
+    },
+
+    /**
+     * Comma separated values as specified by RFC 4180, with a header row. Missing values are left empty.
+     */
+    CSV("text/csv; charset=utf-8") {
+        private final String[] columns = {"id", "nickname", "latitude", "longitude", "sent", "dangertype",
+                "areacode", "phonenumber", "updatereason", "modified", "weather"};
+
+        @Override
+        RowWriter open(Writer out) throws IOException {
+            out.write(String.join(",", columns));
+            out.write("\r\n");
+            return rs -> {
+                out.write(Integer.toString(rs.getInt("id")));
+                out.write(',');
+                writeCsvString(out, rs.getString("nickname"));
+                out.write(',');
+                out.write(Double.toString(rs.getDouble("latitude")));
+                out.write(',');
+                out.write(Double.toString(rs.getDouble("longitude")));
+                out.write(',');
+                out.write(TimeUtil.epochMilliToDateString(rs.getLong("sent")));
+                out.write(',');
+                writeCsvString(out, rs.getString("dangertype"));
+                out.write(',');
+                writeCsvString(out, rs.getString("areacode"));
+                out.write(',');
+                writeCsvString(out, rs.getString("phonenumber"));
+                out.write(',');
+                writeCsvString(out, rs.getString("updatereason"));
+                out.write(',');
+                long modified = rs.getLong("modified");
+                if (modified != 0) {
+                    out.write(TimeUtil.epochMilliToDateString(modified));
+                }
+                out.write(',');
+                writeCsvString(out, rs.getString("weather"));
+                out.write("\r\n");
+            };
+        }
+    };
+
+    private final String contentType;
+
+    ExportFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * {@return the value of the Content-Type header for this format}
+     */
+    public String contentType() {
+        return contentType;
+    }
+
+    /**
+     * Starts an export by writing what comes before the first message.
+     *
+     * @param out the output of the export
+     * @return the writer of the messages
+     * @throws IOException if an I/O error occurs
+     */
+    abstract RowWriter open(Writer out) throws IOException;
+
+    private static void writeCsvString(Writer out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            char c = value.charAt(i);
+            quoted = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quoted) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    /**
+     * Writes the message at the current row of a result set.
+     */
+    @FunctionalInterface
+    interface RowWriter {
+        void write(ResultSet rs) throws SQLException, IOException;
+    }
+
+}
@@ -1,37 +1,109 @@
 package com.server.storage;
 
+import com.server.metrics.Counter;
+import com.server.metrics.Histogram;
+import com.server.metrics.Metrics;
+import com.server.util.Config;
+import com.server.util.JsonStreamWriter;
 import com.server.util.TimeUtil;
 import org.apache.commons.codec.digest.Crypt;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.CharArrayWriter;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.security.SecureRandom;
 import java.sql.*;
 import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class MessageDatabase {
 
-    private static final String DB_PATH = "database.db";
+    private static final String DB_PATH = Config.getString("db.path", "database.db");
+    private static final int DB_READERS = Config.getInt("db.readers", Runtime.getRuntime().availableProcessors());
+    private static final int DB_BUSY_TIMEOUT_MS = Config.getInt("db.busyTimeoutMs", 5000);
+    private static final long DB_ACQUIRE_TIMEOUT_MS = Config.getLong("db.acquireTimeoutMs", 10000);
+    private static final int DB_BATCH_SIZE = Config.getInt("db.batchSize", 256);
+    private static final long DB_BATCH_DELAY_MS = Config.getLong("db.batchDelayMs", 2);
+    private static final int DB_STATEMENT_CACHE_SIZE = Config.getInt("db.statementCacheSize", 32);
+    // Streamed queries in key order hold a reader connection for one chunk at a time, see streamChunked
+    private static final int STREAM_CHUNK_ROWS = Math.max(1, Config.getInt("db.streamChunkRows", 256));
+    // Messages sent within the window are also kept in memory, see RecentMessageCache. A size of 0 disables the cache.
+    private static final long CACHE_WINDOW_MS = Config.getLong("cache.windowMs", 6 * 60 * 60 * 1000);
+    private static final int CACHE_MAX_MESSAGES = Config.getInt("cache.maxMessages", 100_000);
+    private static final Metrics.Family<Histogram> QUERY_TIME = Metrics.histogram("db_query_duration_seconds",
+            "Time spent on database queries, including waiting for a connection and reading the results", "query");
+    private static final Metrics.Family<Histogram> WRITE_TIME = Metrics.histogram("db_write_duration_seconds",
+            "Time from queueing a database write until its batch has been committed", "write");
+    private static final Metrics.Family<Counter> ERRORS = Metrics.counter("db_errors_total",
+            "Database queries and writes which failed", "operation");
+    private static final Metrics.Family<Counter> CACHE_LOOKUPS = Metrics.counter("recent_cache_lookups_total",
+            "Time queries answered from the recent message cache (hit) or the database (miss)", "result");
+    private static final Counter CACHE_HITS = CACHE_LOOKUPS.labels("hit");
+    private static final Counter CACHE_MISSES = CACHE_LOOKUPS.labels("miss");
+    private static final StatementBinder NO_PARAMETERS = ps -> {
+    };
     private final SecureRandom random = new SecureRandom();
-    private Connection connection;
+    // Identifies this run of the server, so that versions from before a restart never match the current ones
+    private final String generation = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong version = new AtomicLong();
+    private volatile long lastModified = System.currentTimeMillis();
+    private ConnectionPool pool;
+    private WriteBatcher batcher;
+    // Null if disabled
+    private RecentMessageCache recent;
 
     public MessageDatabase() {
-        this.init();
+        this(DB_PATH, DB_READERS);
     }
 
-    private void init() {
-        boolean exists = new File(DB_PATH).exists();
+    /**
+     * Opens the database in the given file, creating it if it does not exist.
+     *
+     * @param path    the path of the database file
+     * @param readers the amount of read-only connections to keep open
+     */
+    public MessageDatabase(String path, int readers) {
+        this(path, readers, CACHE_WINDOW_MS, CACHE_MAX_MESSAGES);
+    }
+
+    /**
+     * Opens the database in the given file, creating it if it does not exist.
+     *
+     * @param path             the path of the database file
+     * @param readers          the amount of read-only connections to keep open
+     * @param cacheWindowMs    how long recently sent messages are kept in memory
+     * @param cacheMaxMessages the maximum amount of messages kept in memory, 0 to disable the cache
+     */
+    MessageDatabase(String path, int readers, long cacheWindowMs, int cacheMaxMessages) {
+        this.init(path, readers);
+        if (cacheMaxMessages > 0) {
+            this.loadRecent(new RecentMessageCache(cacheWindowMs, cacheMaxMessages), cacheWindowMs, cacheMaxMessages);
+        }
+    }
+
+    private void init(String path, int readers) {
+        boolean exists = new File(path).exists();
 
         try {
-            String url = "jdbc:sqlite:" + DB_PATH;
-            this.connection = DriverManager.getConnection(url);
-            if (exists) return;
-
-            System.out.println("Database file not found, creating new database");
-            runInitQuery(connection.prepareStatement(DBQueries.CREATE_TABLE_USERS));
-            runInitQuery(connection.prepareStatement(DBQueries.CREATE_TABLE_MESSAGES));
-            runInitQuery(connection.prepareStatement(DBQueries.INSERT_DUMMY_USER));
+            this.pool = new ConnectionPool(path, readers, DB_BUSY_TIMEOUT_MS, DB_ACQUIRE_TIMEOUT_MS, DB_STATEMENT_CACHE_SIZE);
+            this.batcher = new WriteBatcher(pool, DB_BATCH_SIZE, DB_BATCH_DELAY_MS);
+            pool.write(connection -> {
+                if (!exists) {
+                    System.out.println("Database file not found, creating new database");
+                }
+                SchemaMigrations.migrate(connection.connection());
+                if (!exists) {
+                    runInitQuery(connection.connection().prepareStatement(DBQueries.INSERT_DUMMY_USER));
+                }
+                return null;
+            });
         } catch (SQLException e) {
             System.err.println("Error while initializing database: " + e.getMessage());
             e.printStackTrace();
@@ -39,6 +111,28 @@ public class MessageDatabase {
 
     }
 
+    private void loadRecent(RecentMessageCache cache, long windowMs, int maxMessages) {
+        if (pool == null) {
+            return;
+        }
+        long windowStart = System.currentTimeMillis() - windowMs;
+        try {
+            pool.read(connection -> {
+                PreparedStatement ps = connection.prepare(DBQueries.GET_RECENT_MESSAGES);
+                ps.setLong(1, windowStart);
+                ps.setInt(2, maxMessages);
+                try (ResultSet rs = ps.executeQuery()) {
+                    cache.load(rs, windowStart);
+                }
+                return null;
+            });
+            this.recent = cache;
+        } catch (SQLException e) {
+            System.err.println("Error while loading recent messages, queries will not be cached");
+            e.printStackTrace();
+        }
+    }
+
     private void runInitQuery(PreparedStatement ps) {
         try (ps) {
             ps.executeUpdate();
@@ -56,14 +150,16 @@ public class MessageDatabase {
      * @return true if the credentials are valid, false otherwise
      */
     public boolean checkCredentials(String username, String password) {
-        try (PreparedStatement ps = connection.prepareStatement(DBQueries.CHECK_CREDENTIALS)) {
-            ps.setString(1, username);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                String hashedPw = rs.getString("password");
-                return Crypt.crypt(password, hashedPw).equals(hashedPw);
-            }
-            return false;
+        try {
+            String hashedPw = read(DBQueries.CHECK_CREDENTIALS, connection -> {
+                PreparedStatement ps = connection.prepare(DBQueries.CHECK_CREDENTIALS);
+                ps.setString(1, username);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getString("password") : null;
+                }
+            });
+            // Hash outside of the connection so that the reader is not held during the expensive crypt
+            return hashedPw != null && Crypt.crypt(password, hashedPw).equals(hashedPw);
         } catch (SQLException e) {
             System.err.println("Error checking credentials");
             e.printStackTrace();
@@ -80,28 +176,30 @@ public class MessageDatabase {
      * @return true if the user was successfully registered, false if the username already exists
      */
     public boolean register(String username, String password, String email) {
+        byte[] bytes = new byte[13];
+        random.nextBytes(bytes);
+        String saltBytes = new String(Base64.getEncoder().encode(bytes));
+        String salt = "$6$" + saltBytes;
+        String hashedPw = Crypt.crypt(password, salt);
+
         try {
-            try (PreparedStatement ps = connection.prepareStatement(DBQueries.CHECK_USER_EXISTS)) {
-                ps.setString(1, username);
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
-                    return false;
+            // The existence check and insert share the writer so that concurrent registrations cannot race
+            return write("insert_user", connection -> {
+                PreparedStatement exists = connection.prepare(DBQueries.CHECK_USER_EXISTS);
+                exists.setString(1, username);
+                try (ResultSet rs = exists.executeQuery()) {
+                    if (rs.next()) {
+                        return false;
+                    }
                 }
-            }
 
-            byte[] bytes = new byte[13];
-            random.nextBytes(bytes);
-            String saltBytes = new String(Base64.getEncoder().encode(bytes));
-            String salt = "$6$" + saltBytes;
-            String hashedPw = Crypt.crypt(password, salt);
-
-            try (PreparedStatement ps = connection.prepareStatement(DBQueries.INSERT_USER)) {
-                ps.setString(1, username);
-                ps.setString(2, hashedPw);
-                ps.setString(3, email);
-                ps.executeUpdate();
+                PreparedStatement insert = connection.prepare(DBQueries.INSERT_USER);
+                insert.setString(1, username);
+                insert.setString(2, hashedPw);
+                insert.setString(3, email);
+                insert.executeUpdate();
                 return true;
-            }
+            }, null);
         } catch (SQLException e) {
             System.err.println("Error while registering user");
             e.printStackTrace();
@@ -121,28 +219,68 @@ public class MessageDatabase {
      * @param phoneNumber the phone number of the user
      * @param weather     the weather at the time of the warning
      * @param username    the username of the user
+     * @return the id of the new message
      * @throws SQLException if an error occurs while inserting the message
      */
-    public void submitMessage(String nickname,
-                              double latitude,
-                              double longitude,
-                              long sent,
-                              String dangerType,
-                              String areaCode,
-                              String phoneNumber,
-                              String weather,
-                              String username) throws SQLException {
-        try (PreparedStatement ps = connection.prepareStatement(DBQueries.INSERT_MESSAGE)) {
-            ps.setString(1, nickname);
-            ps.setDouble(2, latitude);
-            ps.setDouble(3, longitude);
-            ps.setLong(4, sent);
-            ps.setString(5, dangerType);
-            ps.setString(6, areaCode);
-            ps.setString(7, phoneNumber);
-            ps.setString(8, weather);
-            ps.setString(9, username);
-            ps.executeUpdate();
+    public int submitMessage(String nickname,
+                             double latitude,
+                             double longitude,
+                             long sent,
+                             String dangerType,
+                             String areaCode,
+                             String phoneNumber,
+                             String weather,
+                             String username) throws SQLException {
+        NewMessage message = new NewMessage(nickname, latitude, longitude, sent, dangerType, areaCode, phoneNumber, weather);
+        int id = write("insert_message", connection -> insertMessage(connection, message, username),
+                committedId -> cacheRecent(message.stored(committedId)));
+        messagesChanged();
+        return id;
+    }
+
+    /**
+     * Inserts new warning messages into the database in a single transaction, so either all of them are stored or none.
+     * Compared to submitting them one by one, the messages share one commit and one trip through the write queue.
+     *
+     * @param messages the messages to insert
+     * @param username the username of the user sending all of the messages
+     * @return the ids of the new messages, in the order of {@code messages}
+     * @throws SQLException if an error occurs while inserting the messages, in which case none of them has been inserted
+     */
+    public int[] submitMessages(List<NewMessage> messages, String username) throws SQLException {
+        if (messages.isEmpty()) {
+            return new int[0];
+        }
+        int[] ids = write("insert_messages", connection -> {
+            int[] inserted = new int[messages.size()];
+            for (int i = 0; i < inserted.length; i++) {
+                inserted[i] = insertMessage(connection, messages.get(i), username);
+            }
+            return inserted;
+        }, committedIds -> {
+            for (int i = 0; i < committedIds.length; i++) {
+                cacheRecent(messages.get(i).stored(committedIds[i]));
+            }
+        });
+        messagesChanged();
+        return ids;
+    }
+
+    private static int insertMessage(PooledConnection connection, NewMessage message, String username) throws SQLException {
+        PreparedStatement ps = connection.prepare(DBQueries.INSERT_MESSAGE);
+        ps.setString(1, message.nickname);
+        ps.setDouble(2, message.latitude);
+        ps.setDouble(3, message.longitude);
+        ps.setLong(4, message.sent);
+        ps.setString(5, message.dangerType);
+        ps.setString(6, message.areaCode);
+        ps.setString(7, message.phoneNumber);
+        ps.setString(8, message.weather);
+        ps.setString(9, username);
+        ps.executeUpdate();
+        try (ResultSet keys = ps.getGeneratedKeys()) {
+            keys.next();
+            return keys.getInt(1);
         }
     }
 
@@ -173,7 +311,8 @@ public class MessageDatabase {
                               String weather,
                               String updateReason,
                               long modified) throws SQLException {
-        try (PreparedStatement ps = connection.prepareStatement(DBQueries.UPDATE_MESSAGE)) {
+        int updated = write("update_message", connection -> {
+            PreparedStatement ps = connection.prepare(DBQueries.UPDATE_MESSAGE);
             ps.setString(1, nickname);
             ps.setDouble(2, latitude);
             ps.setDouble(3, longitude);
@@ -185,24 +324,94 @@ public class MessageDatabase {
             ps.setString(9, updateReason);
             ps.setLong(10, modified);
             ps.setInt(11, id);
-            ps.executeUpdate();
+            return ps.executeUpdate();
+        }, count -> {
+            if (count > 0) {
+                cacheRecent(new RecentMessageCache.CachedMessage(id, nickname, latitude, longitude, sent,
+                        dangerType, areaCode, phoneNumber, weather, updateReason, modified));
+            }
+        });
+        if (updated > 0) {
+            messagesChanged();
+        }
+    }
+
+    /**
+     * Sets the weather of a message, unless the message has been moved to another location in the meantime.
+     *
+     * @param id        the id of the message
+     * @param latitude  the latitude the weather was fetched for
+     * @param longitude the longitude the weather was fetched for
+     * @param weather   the weather at the location
+     * @return true if the message was updated, false if it no longer exists or has moved
+     * @throws SQLException if an error occurs while updating the message
+     */
+    public boolean updateWeather(int id, double latitude, double longitude, String weather) throws SQLException {
+        boolean updated = write("update_weather", connection -> {
+            PreparedStatement ps = connection.prepare(DBQueries.UPDATE_WEATHER);
+            ps.setString(1, weather);
+            ps.setInt(2, id);
+            ps.setDouble(3, latitude);
+            ps.setDouble(4, longitude);
+            return ps.executeUpdate() > 0;
+        }, changed -> {
+            if (changed && recent != null) {
+                recent.putWeather(id, latitude, longitude, weather, System.currentTimeMillis());
+            }
+        });
+        if (updated) {
+            messagesChanged();
+        }
+        return updated;
+    }
+
+    /**
+     * {@return an opaque version of the messages, which changes whenever a message is added or changed}
+     * Versions are never reused, not even after a restart.
+     * <p>
+     * The version is changed only after the change has been committed, so a version read before a query
+     * is never newer than the result of the query. Callers caching results should therefore read it first.
+     */
+    public String getDataVersion() {
+        return generation + "-" + version.get();
+    }
+
+    /**
+     * {@return the time a message was last added or changed, or the time the database was opened, in epoch milliseconds}
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    private void cacheRecent(RecentMessageCache.CachedMessage message) {
+        if (recent != null) {
+            recent.put(message, System.currentTimeMillis());
         }
     }
 
+    private void messagesChanged() {
+        lastModified = System.currentTimeMillis();
+        version.incrementAndGet();
+    }
+
     /**
      * {@return a JSONArray containing all of the messages in the database}
      *
      * @throws SQLException if an error occurs while querying the database
      */
     public JSONArray getMessages() throws SQLException {
-        try (PreparedStatement ps = connection.prepareStatement(DBQueries.GET_ALL_MESSAGES)) {
-            ResultSet rs = ps.executeQuery();
-            JSONArray array = new JSONArray();
-            while (rs.next()) {
-                parseMsgToArray(rs, array);
-            }
-            return array;
-        }
+        return getMessages(Page.ALL);
+    }
+
+    /**
+     * Gets a page of all the messages in the database
+     *
+     * @param page the page to get
+     * @return a JSONArray containing the messages
+     * @throws SQLException if an error occurs while querying the database
+     */
+    public JSONArray getMessages(Page page) throws SQLException {
+        return queryMessages(DBQueries.GET_ALL_MESSAGES, NO_PARAMETERS, page, false);
     }
 
     /**
@@ -213,15 +422,19 @@ public class MessageDatabase {
      * @throws SQLException if an error occurs while querying the database
      */
     public JSONArray getMessages(String nickname) throws SQLException {
-        try (PreparedStatement ps = connection.prepareStatement(DBQueries.GET_MESSAGES_BY_NICKNAME)) {
-            ps.setString(1, nickname);
-            ResultSet rs = ps.executeQuery();
-            JSONArray array = new JSONArray();
-            while (rs.next()) {
-                parseMsgToArray(rs, array);
-            }
-            return array;
-        }
+        return getMessages(nickname, Page.ALL);
+    }
+
+    /**
+     * Gets a page of the messages for a specific nickname
+     *
+     * @param nickname the nickname to get the messages for
+     * @param page     the page to get
+     * @return a JSONArray containing the messages
+     * @throws SQLException if an error occurs while querying the database
+     */
+    public JSONArray getMessages(String nickname, Page page) throws SQLException {
+        return queryMessages(DBQueries.GET_MESSAGES_BY_NICKNAME, nicknameBinder(nickname), page, false);
     }
 
     /**
@@ -233,16 +446,24 @@ public class MessageDatabase {
      * @throws SQLException if an error occurs while querying the database
      */
     public JSONArray getMessages(long timeStart, long timeEnd) throws SQLException {
-        try (PreparedStatement ps = connection.prepareStatement(DBQueries.GET_MESSAGES_BY_TIME)) {
-            ps.setLong(1, timeStart);
-            ps.setLong(2, timeEnd);
-            ResultSet rs = ps.executeQuery();
-            JSONArray array = new JSONArray();
-            while (rs.next()) {
-                parseMsgToArray(rs, array);
-            }
-            return array;
+        return getMessages(timeStart, timeEnd, Page.ALL);
+    }
+
+    /**
+     * Gets a page of the messages sent inside a given time period
+     *
+     * @param timeStart the start of the time period
+     * @param timeEnd   the end of the time period
+     * @param page      the page to get
+     * @return a JSONArray containing the messages
+     * @throws SQLException if an error occurs while querying the database
+     */
+    public JSONArray getMessages(long timeStart, long timeEnd, Page page) throws SQLException {
+        List<RecentMessageCache.CachedMessage> cached = findRecent(timeStart, page, timeFilter(timeStart, timeEnd));
+        if (cached != null) {
+            return toArray(cached);
         }
+        return queryMessages(DBQueries.GET_MESSAGES_BY_TIME, timeBinder(timeStart, timeEnd), page, false);
     }
 
     /**
@@ -260,17 +481,476 @@ public class MessageDatabase {
      * @throws SQLException if an error occurs while querying the database
      */
     public JSONArray getMessages(double upLatitude, double downLatitude, double upLongitude, double downLongitude) throws SQLException {
-        try (PreparedStatement ps = connection.prepareStatement(DBQueries.GET_MESSAGES_BY_AREA)) {
+        return getMessages(upLatitude, downLatitude, upLongitude, downLongitude, Page.ALL);
+    }
+
+    /**
+     * Gets a page of the warnings for a specific geographic area.
+     *
+     * @param upLatitude    the upper limit of the latitude
+     * @param downLatitude  the lower limit of the latitude
+     * @param upLongitude   the upper limit of the longitude
+     * @param downLongitude the lower limit of the longitude
+     * @param page          the page to get
+     * @return a JSONArray containing the messages
+     * @throws SQLException if an error occurs while querying the database
+     * @see #getMessages(double, double, double, double)
+     */
+    public JSONArray getMessages(double upLatitude, double downLatitude, double upLongitude, double downLongitude, Page page) throws SQLException {
+        return queryMessages(DBQueries.GET_MESSAGES_BY_AREA, areaBinder(upLatitude, downLatitude, upLongitude, downLongitude), page, false);
+    }
+
+    /**
+     * Gets a page of the warnings for a specific geographic area, sent inside a given time period.
+     *
+     * @param upLatitude    the upper limit of the latitude
+     * @param downLatitude  the lower limit of the latitude
+     * @param upLongitude   the upper limit of the longitude
+     * @param downLongitude the lower limit of the longitude
+     * @param timeStart     the start of the time period
+     * @param timeEnd       the end of the time period
+     * @param page          the page to get
+     * @return a JSONArray containing the messages
+     * @throws SQLException if an error occurs while querying the database
+     * @see #getMessages(double, double, double, double)
+     */
+    public JSONArray getMessages(double upLatitude, double downLatitude, double upLongitude, double downLongitude,
+                                 long timeStart, long timeEnd, Page page) throws SQLException {
+        List<RecentMessageCache.CachedMessage> cached = findRecent(timeStart, page,
+                areaTimeFilter(upLatitude, downLatitude, upLongitude, downLongitude, timeStart, timeEnd));
+        if (cached != null) {
+            return toArray(cached);
+        }
+        return queryMessages(DBQueries.GET_MESSAGES_BY_AREA_AND_TIME,
+                areaTimeBinder(upLatitude, downLatitude, upLongitude, downLongitude, timeStart, timeEnd), page, false);
+    }
+
+    /**
+     * Streams a page of all of the messages in the database as a JSON array.
+     *
+     * @param page   the page to stream
+     * @param opener opens the JSON output once the first message has been found
+     * @return the amount of messages written, or 0 if the output was never opened
+     * @throws SQLException if an error occurs while querying the database
+     * @throws IOException  if an error occurs while writing the output
+     * @see #getMessages(Page)
+     */
+    public int streamMessages(Page page, JsonOpener opener) throws SQLException, IOException {
+        return streamChunked(DBQueries.GET_ALL_MESSAGES, NO_PARAMETERS, page, opener, false);
+    }
+
+    /**
+     * Streams a page of the messages for a specific nickname as a JSON array.
+     *
+     * @param nickname the nickname to get the messages for
+     * @param page     the page to stream
+     * @param opener   opens the JSON output once the first message has been found
+     * @return the amount of messages written, or 0 if the output was never opened
+     * @throws SQLException if an error occurs while querying the database
+     * @throws IOException  if an error occurs while writing the output
+     * @see #getMessages(String, Page)
+     */
+    public int streamMessages(String nickname, Page page, JsonOpener opener) throws SQLException, IOException {
+        return streamChunked(DBQueries.GET_MESSAGES_BY_NICKNAME, nicknameBinder(nickname), page, opener, false);
+    }
+
+    /**
+     * Streams a page of the messages sent inside a given time period as a JSON array.
+     *
+     * @param timeStart the start of the time period
+     * @param timeEnd   the end of the time period
+     * @param page      the page to stream
+     * @param opener    opens the JSON output once the first message has been found
+     * @return the amount of messages written, or 0 if the output was never opened
+     * @throws SQLException if an error occurs while querying the database
+     * @throws IOException  if an error occurs while writing the output
+     * @see #getMessages(long, long, Page)
+     */
+    public int streamMessages(long timeStart, long timeEnd, Page page, JsonOpener opener) throws SQLException, IOException {
+        List<RecentMessageCache.CachedMessage> cached = findRecent(timeStart, page, timeFilter(timeStart, timeEnd));
+        if (cached != null) {
+            return streamCached(cached, opener);
+        }
+        return streamCursor(DBQueries.GET_MESSAGES_BY_TIME, timeBinder(timeStart, timeEnd), page, opener, false);
+    }
+
+    /**
+     * Streams a page of the warnings for a specific geographic area as a JSON array.
+     *
+     * @param upLatitude    the upper limit of the latitude
+     * @param downLatitude  the lower limit of the latitude
+     * @param upLongitude   the upper limit of the longitude
+     * @param downLongitude the lower limit of the longitude
+     * @param page          the page to stream
+     * @param opener        opens the JSON output once the first message has been found
+     * @return the amount of messages written, or 0 if the output was never opened
+     * @throws SQLException if an error occurs while querying the database
+     * @throws IOException  if an error occurs while writing the output
+     * @see #getMessages(double, double, double, double, Page)
+     */
+    public int streamMessages(double upLatitude, double downLatitude, double upLongitude, double downLongitude, Page page, JsonOpener opener) throws SQLException, IOException {
+        return streamCursor(DBQueries.GET_MESSAGES_BY_AREA, areaBinder(upLatitude, downLatitude, upLongitude, downLongitude), page, opener, false);
+    }
+
+    /**
+     * Gets a page of the messages added or changed after a sequence number, in the order of the changes.
+     * Every message in the result has a {@code seq} field, and the greatest one is the sequence number to continue from.
+     * A message changed several times is only returned once, at its latest change.
+     *
+     * @param page the page to get, starting after the last sequence number the caller has seen
+     * @return a JSONArray containing the messages
+     * @throws SQLException if an error occurs while querying the database
+     */
+    public JSONArray getChanges(Page page) throws SQLException {
+        return queryMessages(DBQueries.GET_CHANGES, NO_PARAMETERS, page, true);
+    }
+
+    /**
+     * Gets a page of the messages added or changed at or after the given time of the server's clock, in the order of the changes.
+     * The client's {@code sent} and {@code modified} times play no part, so a back-dated message is still returned.
+     * This is for callers without a sequence number yet, later pages and syncs should use {@link #getChanges(Page)}.
+     *
+     * @param since the time in epoch milliseconds
+     * @param page  the page to get
+     * @return a JSONArray containing the messages
+     * @throws SQLException if an error occurs while querying the database
+     */
+    public JSONArray getChanges(long since, Page page) throws SQLException {
+        return queryMessages(DBQueries.GET_CHANGES_BY_TIME, sinceBinder(since), page, true);
+    }
+
+    /**
+     * Streams a page of the messages added or changed after a sequence number as a JSON array.
+     *
+     * @param page   the page to stream, starting after the last sequence number the caller has seen
+     * @param opener opens the JSON output once the first message has been found
+     * @return the amount of messages written, or 0 if the output was never opened
+     * @throws SQLException if an error occurs while querying the database
+     * @throws IOException  if an error occurs while writing the output
+     * @see #getChanges(Page)
+     */
+    public int streamChanges(Page page, JsonOpener opener) throws SQLException, IOException {
+        return streamChunked(DBQueries.GET_CHANGES, NO_PARAMETERS, page, opener, true);
+    }
+
+    /**
+     * Streams a page of the messages added or changed at or after the given time of the server's clock as a JSON array.
+     *
+     * @param since  the time in epoch milliseconds
+     * @param page   the page to stream
+     * @param opener opens the JSON output once the first message has been found
+     * @return the amount of messages written, or 0 if the output was never opened
+     * @throws SQLException if an error occurs while querying the database
+     * @throws IOException  if an error occurs while writing the output
+     * @see #getChanges(long, Page)
+     */
+    public int streamChanges(long since, Page page, JsonOpener opener) throws SQLException, IOException {
+        return streamCursor(DBQueries.GET_CHANGES_BY_TIME, sinceBinder(since), page, opener, true);
+    }
+
+    /**
+     * Streams a page of the warnings for a specific geographic area, sent inside a given time period, as a JSON array.
+     *
+     * @param upLatitude    the upper limit of the latitude
+     * @param downLatitude  the lower limit of the latitude
+     * @param upLongitude   the upper limit of the longitude
+     * @param downLongitude the lower limit of the longitude
+     * @param timeStart     the start of the time period
+     * @param timeEnd       the end of the time period
+     * @param page          the page to stream
+     * @param opener        opens the JSON output once the first message has been found
+     * @return the amount of messages written, or 0 if the output was never opened
+     * @throws SQLException if an error occurs while querying the database
+     * @throws IOException  if an error occurs while writing the output
+     * @see #getMessages(double, double, double, double, long, long, Page)
+     */
+    public int streamMessages(double upLatitude, double downLatitude, double upLongitude, double downLongitude,
+                              long timeStart, long timeEnd, Page page, JsonOpener opener) throws SQLException, IOException {
+        List<RecentMessageCache.CachedMessage> cached = findRecent(timeStart, page,
+                areaTimeFilter(upLatitude, downLatitude, upLongitude, downLongitude, timeStart, timeEnd));
+        if (cached != null) {
+            return streamCached(cached, opener);
+        }
+        return streamCursor(DBQueries.GET_MESSAGES_BY_AREA_AND_TIME,
+                areaTimeBinder(upLatitude, downLatitude, upLongitude, downLongitude, timeStart, timeEnd), page, opener, false);
+    }
+
+    /**
+     * Finds a page of messages from the recent message cache, if the cache holds every message sent at or after {@code timeStart}.
+     *
+     * @return the messages, or null if the query has to go to the database
+     */
+    private List<RecentMessageCache.CachedMessage> findRecent(long timeStart, Page page, Predicate<RecentMessageCache.CachedMessage> filter) {
+        RecentMessageCache cache = recent;
+        if (cache == null) {
+            return null;
+        }
+        List<RecentMessageCache.CachedMessage> messages = timeStart >= cache.coveredFrom() ? cache.find(page, filter) : null;
+        // Messages may have been evicted while searching, in which case the result could have holes
+        if (messages == null || timeStart < cache.coveredFrom()) {
+            CACHE_MISSES.increment();
+            return null;
+        }
+        CACHE_HITS.increment();
+        return messages;
+    }
+
+    /**
+     * Runs a query with a pooled read-only connection, measuring it under the name of its SQL, see {@link DBQueries#nameOf}.
+     */
+    private <T> T read(String sql, ConnectionPool.SQLFunction<T> query) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return pool.read(query);
+        } catch (SQLException e) {
+            ERRORS.labels(DBQueries.nameOf(sql)).increment();
+            throw e;
+        } finally {
+            QUERY_TIME.labels(DBQueries.nameOf(sql)).recordSince(start);
+        }
+    }
+
+    /**
+     * Runs a query with a connection of its own, like {@link #read(String, ConnectionPool.SQLFunction)}.
+     */
+    private <T> T readDetached(String sql, ConnectionPool.SQLFunction<T> query) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return pool.readDetached(query);
+        } catch (SQLException e) {
+            ERRORS.labels(DBQueries.nameOf(sql)).increment();
+            throw e;
+        } finally {
+            QUERY_TIME.labels(DBQueries.nameOf(sql)).recordSince(start);
+        }
+    }
+
+    /**
+     * Queues a write with {@link WriteBatcher#submit(ConnectionPool.SQLFunction, Consumer)}, measuring it under the given name.
+     */
+    private <T> T write(String name, ConnectionPool.SQLFunction<T> write, Consumer<T> committed) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return batcher.submit(write, committed);
+        } catch (SQLException e) {
+            ERRORS.labels(name).increment();
+            throw e;
+        } finally {
+            WRITE_TIME.labels(name).recordSince(start);
+        }
+    }
+
+    private static Predicate<RecentMessageCache.CachedMessage> timeFilter(long timeStart, long timeEnd) {
+        return message -> message.sent >= timeStart && message.sent <= timeEnd;
+    }
+
+    private static Predicate<RecentMessageCache.CachedMessage> areaTimeFilter(double upLatitude, double downLatitude, double upLongitude, double downLongitude,
+                                                                             long timeStart, long timeEnd) {
+        return message -> message.sent >= timeStart && message.sent <= timeEnd
+                && message.latitude <= upLatitude && message.latitude >= downLatitude
+                && message.longitude >= upLongitude && message.longitude <= downLongitude;
+    }
+
+    private static JSONArray toArray(List<RecentMessageCache.CachedMessage> messages) {
+        JSONArray array = new JSONArray();
+        for (RecentMessageCache.CachedMessage message : messages) {
+            array.put(new JSONObject(message.json()));
+        }
+        return array;
+    }
+
+    private static int streamCached(List<RecentMessageCache.CachedMessage> messages, JsonOpener opener) throws IOException {
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        JsonStreamWriter writer = opener.open();
+        writer.beginArray();
+        for (RecentMessageCache.CachedMessage message : messages) {
+            writer.rawValue(message.json());
+        }
+        writer.endArray();
+        return messages.size();
+    }
+
+    private static StatementBinder nicknameBinder(String nickname) {
+        return ps -> ps.setString(1, nickname);
+    }
+
+    private static StatementBinder timeBinder(long timeStart, long timeEnd) {
+        return ps -> {
+            ps.setLong(1, timeStart);
+            ps.setLong(2, timeEnd);
+        };
+    }
+
+    private static StatementBinder sinceBinder(long since) {
+        return ps -> ps.setLong(1, since);
+    }
+
+    private static StatementBinder areaBinder(double upLatitude, double downLatitude, double upLongitude, double downLongitude) {
+        return ps -> {
             ps.setDouble(1, upLatitude);
             ps.setDouble(2, downLatitude);
             ps.setDouble(3, upLongitude);
             ps.setDouble(4, downLongitude);
-            ResultSet rs = ps.executeQuery();
-            JSONArray array = new JSONArray();
-            while (rs.next()) {
-                parseMsgToArray(rs, array);
+        };
+    }
+
+    private static StatementBinder areaTimeBinder(double upLatitude, double downLatitude, double upLongitude, double downLongitude,
+                                                  long timeStart, long timeEnd) {
+        StatementBinder area = areaBinder(upLatitude, downLatitude, upLongitude, downLongitude);
+        return ps -> {
+            area.bind(ps);
+            ps.setLong(5, timeStart);
+            ps.setLong(6, timeEnd);
+        };
+    }
+
+    /**
+     * Binds the parameters of a message query, including the page, which takes the last two parameters.
+     */
+    private static void bind(PreparedStatement ps, StatementBinder binder, Page page) throws SQLException {
+        binder.bind(ps);
+        int afterIndex = ps.getParameterMetaData().getParameterCount() - 1;
+        ps.setLong(afterIndex, page.getAfter());
+        ps.setInt(afterIndex + 1, page.getLimit());
+    }
+
+    private JSONArray queryMessages(String sql, StatementBinder binder, Page page, boolean withSeq) throws SQLException {
+        return read(sql, connection -> {
+            PreparedStatement ps = connection.prepare(sql);
+            bind(ps, binder, page);
+            try (ResultSet rs = ps.executeQuery()) {
+                JSONArray array = new JSONArray();
+                while (rs.next()) {
+                    parseMsgToArray(rs, array);
+                    if (withSeq) {
+                        array.getJSONObject(array.length() - 1).put("seq", rs.getLong("seq"));
+                    }
+                }
+                return array;
+            }
+        });
+    }
+
+    /**
+     * Streams a query whose plan walks the rows in the order of its page key, the id or the sequence number,
+     * in chunks of {@code STREAM_CHUNK_ROWS} messages. Each chunk is read and encoded with a pooled connection,
+     * which is returned to the pool before the chunk is written, so that a slow client never keeps a reader connection
+     * from other queries. The next chunk continues after the key of the last message of the previous one, which
+     * for these queries is a seek in the index, the same way as the next page would be.
+     * <p>
+     * Chunks are not read from the same snapshot: a message which changes while its response is being written
+     * can appear in the changes feed a second time, with its newer sequence number, further along the same response.
+     */
+    private int streamChunked(String sql, StatementBinder binder, Page page, JsonOpener opener, boolean withSeq) throws SQLException, IOException {
+        ChunkBuffer buffer = new ChunkBuffer();
+        JsonStreamWriter writer = null;
+        long after = page.getAfter();
+        int remaining = page.getLimit();
+        int count = 0;
+        while (true) {
+            int limit = remaining == -1 ? STREAM_CHUNK_ROWS : Math.min(STREAM_CHUNK_ROWS, remaining);
+            buffer.reset();
+            long lastKey = readChunk(sql, binder, new Page(after, limit), withSeq, buffer);
+            if (buffer.rows > 0) {
+                if (writer == null) {
+                    writer = opener.open();
+                    writer.beginArray();
+                }
+                buffer.writeTo(writer);
+                count += buffer.rows;
+            }
+            if (remaining != -1) {
+                remaining -= buffer.rows;
+            }
+            if (buffer.rows < limit || remaining == 0) {
+                break;
+            }
+            after = lastKey;
+        }
+        if (writer != null) {
+            writer.endArray();
+        }
+        return count;
+    }
+
+    /**
+     * Encodes a chunk of messages into the buffer, and returns the key of the last one.
+     */
+    private long readChunk(String sql, StatementBinder binder, Page page, boolean withSeq, ChunkBuffer buffer) throws SQLException {
+        return read(sql, connection -> {
+            PreparedStatement ps = connection.prepare(sql);
+            bind(ps, binder, page);
+            try (ResultSet rs = ps.executeQuery()) {
+                // The messages are written as the elements of an array, separated by commas
+                JsonStreamWriter writer = new JsonStreamWriter(buffer);
+                long lastKey = page.getAfter();
+                while (rs.next()) {
+                    writeMessage(rs, writer, withSeq);
+                    lastKey = rs.getLong(withSeq ? "seq" : "id");
+                    buffer.rows++;
+                }
+                return lastKey;
+            } catch (IOException e) {
+                // A CharArrayWriter does not throw
+                throw new UncheckedIOException(e);
             }
-            return array;
+        });
+    }
+
+    /**
+     * Streams a query whose plan does not follow the page key, like time and location queries, which find their rows
+     * from the sent or R*Tree index and then sort them. Running such a query again for every chunk would scan and sort
+     * the whole range each time, so it is read from a single cursor instead, and the rows are written as they are read.
+     * The cursor uses a connection of its own, see {@link ConnectionPool#readDetached(ConnectionPool.SQLFunction)},
+     * so that a slow client does not keep a pooled reader from other queries.
+     */
+    private int streamCursor(String sql, StatementBinder binder, Page page, JsonOpener opener, boolean withSeq) throws SQLException, IOException {
+        try {
+            return readDetached(sql, connection -> {
+                try (PreparedStatement ps = connection.connection().prepareStatement(sql)) {
+                    bind(ps, binder, page);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) {
+                            return 0;
+                        }
+
+                        JsonStreamWriter writer = opener.open();
+                        int count = 0;
+                        writer.beginArray();
+                        do {
+                            writeMessage(rs, writer, withSeq);
+                            count++;
+                        } while (rs.next());
+                        writer.endArray();
+                        return count;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Encoded messages of a chunk, see {@link #streamChunked(String, StatementBinder, Page, JsonOpener, boolean)}.
+     * Reused for every chunk of a response, and written out without copying.
+     */
+    private static class ChunkBuffer extends CharArrayWriter {
+
+        private int rows;
+
+        @Override
+        public void reset() {
+            super.reset();
+            rows = 0;
+        }
+
+        private void writeTo(JsonStreamWriter writer) throws IOException {
+            writer.rawValue(buf, 0, count);
         }
     }
 
@@ -281,8 +961,9 @@ public class MessageDatabase {
      * @param rs    the ResultSet to parse the message from
      * @param array the JSONArray to add the message to
      * @throws SQLException if an error occurs while querying the database
+     * @implNote Package-private so that the benchmarks module can measure it.
      */
-    private void parseMsgToArray(ResultSet rs, JSONArray array) throws SQLException {
+    void parseMsgToArray(ResultSet rs, JSONArray array) throws SQLException {
         JSONObject json = new JSONObject();
         json.put("id", rs.getInt("id"));
         json.put("nickname", rs.getString("nickname"));
@@ -320,6 +1001,117 @@ public class MessageDatabase {
         array.put(json);
     }
 
+    /**
+     * Writes a message from a ResultSet as a JSON object.
+     * The ResultSet must not be empty (i.e. {@link ResultSet#next()} must have been called and returned true).
+     *
+     * @param rs     the ResultSet to read the message from
+     * @param writer the writer to write the message to
+     * @throws SQLException if an error occurs while querying the database
+     * @throws IOException  if an error occurs while writing the message
+     * @see #parseMsgToArray(ResultSet, JSONArray)
+     * @implNote Package-private so that the benchmarks module can measure it.
+     */
+    void writeMessage(ResultSet rs, JsonStreamWriter writer) throws SQLException, IOException {
+        writeMessage(rs, writer, false);
+    }
+
+    static void writeMessage(ResultSet rs, JsonStreamWriter writer, boolean withSeq) throws SQLException, IOException {
+        writer.beginObject();
+        writer.name("id").value(rs.getInt("id"));
+        writer.name("nickname").value(rs.getString("nickname"));
+        writer.name("latitude").value(rs.getDouble("latitude"));
+        writer.name("longitude").value(rs.getDouble("longitude"));
+        writer.name("sent").dateValue(rs.getLong("sent"));
+        writer.name("dangertype").value(rs.getString("dangertype"));
+
+        String areacode = rs.getString("areacode");
+        if (areacode != null) {
+            writer.name("areacode").value(areacode);
+        }
+
+        String phonenumber = rs.getString("phonenumber");
+        if (phonenumber != null) {
+            writer.name("phonenumber").value(phonenumber);
+        }
+
+        String updateReason = rs.getString("updatereason");
+        if (updateReason != null) {
+            writer.name("updatereason").value(updateReason);
+        }
+
+        long modified = rs.getLong("modified");
+        if (modified != 0) {
+            writer.name("modified").dateValue(modified);
+        }
+
+        String weather = rs.getString("weather");
+        if (weather != null) {
+            writer.name("weather").value(weather);
+        }
+
+        if (withSeq) {
+            writer.name("seq").value(rs.getLong("seq"));
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Exports all messages in id order, see {@link #exportMessages(long, long, ExportFormat, WriterOpener)}.
+     *
+     * @param format the format of the export
+     * @param opener opens the output once the query has been started
+     * @return the amount of messages exported
+     * @throws SQLException if an error occurs while querying the database
+     * @throws IOException  if an error occurs while writing the export
+     */
+    public int exportMessages(ExportFormat format, WriterOpener opener) throws SQLException, IOException {
+        return exportMessages(DBQueries.EXPORT_MESSAGES, ps -> {
+        }, format, opener);
+    }
+
+    /**
+     * Exports the messages sent within a time period in the given format, in sent order.
+     * <p>
+     * The messages are written as they are read from a forward-only cursor, so memory use does not depend on the amount
+     * of messages. The export uses a read-only connection of its own: it never makes queries wait for a pooled connection,
+     * and in WAL mode it does not block writes either, it just sees the messages as they were when it started.
+     *
+     * @param timeStart the start of the period in epoch milliseconds
+     * @param timeEnd   the end of the period in epoch milliseconds, inclusive
+     * @param format    the format of the export
+     * @param opener    opens the output once the query has been started
+     * @return the amount of messages exported
+     * @throws SQLException if an error occurs while querying the database
+     * @throws IOException  if an error occurs while writing the export
+     */
+    public int exportMessages(long timeStart, long timeEnd, ExportFormat format, WriterOpener opener) throws SQLException, IOException {
+        return exportMessages(DBQueries.EXPORT_MESSAGES_BY_TIME, timeBinder(timeStart, timeEnd), format, opener);
+    }
+
+    private int exportMessages(String sql, StatementBinder binder, ExportFormat format, WriterOpener opener) throws SQLException, IOException {
+        try {
+            return readDetached(sql, connection -> {
+                try (PreparedStatement ps = connection.connection().prepareStatement(sql)) {
+                    binder.bind(ps);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        ExportFormat.RowWriter rows = format.open(opener.open());
+                        int count = 0;
+                        while (rs.next()) {
+                            rows.write(rs);
+                            count++;
+                        }
+                        return count;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
     /**
      * Checks if the given username is the sender of the given message
      *
@@ -328,20 +1120,86 @@ public class MessageDatabase {
      * @return true if the username is the sender of the message, false otherwise
      */
     public boolean isSender(int id, String username) throws SQLException {
-        try (PreparedStatement ps = connection.prepareStatement(DBQueries.IS_SENDER)) {
+        return read(DBQueries.IS_SENDER, connection -> {
+            PreparedStatement ps = connection.prepare(DBQueries.IS_SENDER);
             ps.setInt(1, id);
             ps.setString(2, username);
-            ResultSet rs = ps.executeQuery();
-            return rs.next();
-        }
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        });
     }
 
     public void close() {
-        try {
-            connection.close();
-        } catch (SQLException e) {
-            System.err.println("Error while closing database connection");
-            e.printStackTrace();
+        if (batcher != null) {
+            batcher.close();
+        }
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * A warning message to be inserted, see {@link #submitMessages(List, String)}.
+     */
+    public static final class NewMessage {
+
+        private final String nickname;
+        private final double latitude;
+        private final double longitude;
+        private final long sent;
+        private final String dangerType;
+        private final String areaCode;
+        private final String phoneNumber;
+        private final String weather;
+
+        /**
+         * @param nickname    the nickname of the user
+         * @param latitude    the latitude of the position of the warning
+         * @param longitude   the longitude of the position of the warning
+         * @param sent        the time the warning was sent
+         * @param dangerType  the type of danger
+         * @param areaCode    the area code of the user, or null
+         * @param phoneNumber the phone number of the user, or null
+         * @param weather     the weather at the time of the warning, or null
+         */
+        public NewMessage(String nickname, double latitude, double longitude, long sent, String dangerType,
+                          String areaCode, String phoneNumber, String weather) {
+            this.nickname = nickname;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.sent = sent;
+            this.dangerType = dangerType;
+            this.areaCode = areaCode;
+            this.phoneNumber = phoneNumber;
+            this.weather = weather;
         }
+
+        private RecentMessageCache.CachedMessage stored(int id) {
+            return new RecentMessageCache.CachedMessage(id, nickname, latitude, longitude, sent, dangerType,
+                    areaCode, phoneNumber, weather, null, 0);
+        }
+    }
+
+    /**
+     * Opens the JSON output of a streamed query.
+     * The output is opened lazily so that empty results can still be answered differently, eg. with 204 No Content.
+     */
+    @FunctionalInterface
+    public interface JsonOpener {
+        JsonStreamWriter open() throws IOException;
+    }
+
+    /**
+     * Opens the output of an export, see {@link #exportMessages(ExportFormat, WriterOpener)}.
+     */
+    @FunctionalInterface
+    public interface WriterOpener {
+        Writer open() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface StatementBinder {
+        void bind(PreparedStatement ps) throws SQLException;
     }
 }
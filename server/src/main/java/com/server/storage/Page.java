@@ -0,0 +1,45 @@
+package com.server.storage;
+
+/**
+ * A page of a message query, for keyset pagination over the message ids.
+ * <p>
+ * A page contains the messages with an id greater than {@code after}, in ascending id order, up to {@code limit} messages.
+ * The next page starts after the id of the last message of the previous one,
+ * and a page with fewer messages than the limit is the last one.
+ * Unlike offsets, this stays cheap however deep into the results the page is, and does not skip or repeat
+ * messages when new ones are added between requests.
+ */
+public final class Page {
+
+    /**
+     * All matching messages in one page.
+     */
+    public static final Page ALL = new Page(0, -1);
+
+    private final long after;
+    private final int limit;
+
+    /**
+     * @param after the id after which the page starts, 0 for the first page
+     * @param limit the maximum amount of messages in the page, or -1 for no limit
+     */
+    public Page(long after, int limit) {
+        if (after < 0) {
+            throw new IllegalArgumentException("after must not be negative");
+        }
+        if (limit == 0 || limit < -1) {
+            throw new IllegalArgumentException("limit must be positive or -1");
+        }
+        this.after = after;
+        this.limit = limit;
+    }
+
+    public long getAfter() {
+        return after;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.server.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A connection of the {@link ConnectionPool} together with the statements prepared on it.
+ * <p>
+ * Preparing a statement makes SQLite parse and plan the SQL again, so statements are kept open and reused
+ * for the lifetime of the connection, keyed by their SQL (in practice the {@link DBQueries} constants).
+ * The pool hands each connection to one thread at a time, so the cache needs no locking of its own.
+ * <p>
+ * Statements from {@link #prepare(String)} must not be closed by the caller, but their result sets must be,
+ * since an open result set keeps the read transaction of the connection open.
+ * The least recently used statements are closed when the cache is full.
+ */
+class PooledConnection {
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements;
+
+    /**
+     * @param connection    the connection to wrap
+     * @param maxStatements the maximum amount of statements to keep prepared
+     */
+    PooledConnection(Connection connection, int maxStatements) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= maxStatements) {
+                    return false;
+                }
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * {@return the underlying connection, for transaction control and statements which are not worth caching}
+     */
+    Connection connection() {
+        return connection;
+    }
+
+    /**
+     * Returns a prepared statement for the given SQL, preparing it only on first use.
+     * Parameters left over from a previous use are cleared.
+     *
+     * @param sql the SQL of the statement
+     * @return the statement, which must not be closed
+     * @throws SQLException if the statement cannot be prepared
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps == null) {
+            ps = connection.prepareStatement(sql);
+            statements.put(sql, ps);
+        } else {
+            ps.clearParameters();
+        }
+        return ps;
+    }
+
+    /**
+     * Closes the cached statements and the connection.
+     */
+    void close() {
+        for (PreparedStatement ps : statements.values()) {
+            closeQuietly(ps);
+        }
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Error while closing database connection");
+            e.printStackTrace();
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            System.err.println("Error while closing prepared statement");
+            e.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,242 @@
+package com.server.storage;
+
+import com.server.util.JsonStreamWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+/**
+ * An in-memory copy of the recently sent messages, for answering time queries without touching the database.
+ * <p>
+ * The cache holds every message sent at or after {@link #coveredFrom()}, so a query whose time period starts there
+ * or later can be answered from memory alone. The start moves forward as the window of {@code windowMs} slides on,
+ * and also when the cache is full, in which case the messages sent first are dropped to make room.
+ * Each message is kept encoded as JSON, so answering from the cache costs little more than copying the text.
+ * <p>
+ * The cache is written through by {@link MessageDatabase} once a write has been committed, always on the writer thread
+ * and in commit order, so it only ever has one writer. Readers go through the concurrent id map without locking.
+ */
+class RecentMessageCache {
+
+    private final long windowMs;
+    private final int maxMessages;
+    // Read concurrently, written by the writer thread only
+    private final ConcurrentSkipListMap<Integer, CachedMessage> byId = new ConcurrentSkipListMap<>();
+    // The same messages by sent time and id, for eviction; only used by the writer thread
+    private final TreeSet<CachedMessage> bySent = new TreeSet<>(
+            Comparator.<CachedMessage>comparingLong(message -> message.sent).thenComparingInt(message -> message.id));
+    private volatile long coveredFrom = Long.MAX_VALUE;
+
+    /**
+     * @param windowMs    how long after sending a message is kept, in milliseconds
+     * @param maxMessages the maximum amount of messages to keep
+     */
+    RecentMessageCache(long windowMs, int maxMessages) {
+        this.windowMs = windowMs;
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * {@return the time from which on every sent message is in the cache, in epoch milliseconds}
+     */
+    long coveredFrom() {
+        return coveredFrom;
+    }
+
+    /**
+     * Fills the cache with the newest messages from the database.
+     *
+     * @param rs          the messages sent at or after {@code windowStart}, newest first
+     * @param windowStart the start of the window when the query was made
+     * @throws SQLException if an error occurs while reading the messages
+     */
+    void load(ResultSet rs, long windowStart) throws SQLException {
+        long lastSent = Long.MAX_VALUE;
+        int count = 0;
+        while (count < maxMessages && rs.next()) {
+            CachedMessage message = CachedMessage.of(rs);
+            byId.put(message.id, message);
+            bySent.add(message);
+            lastSent = message.sent;
+            count++;
+        }
+        // When the cache filled up, messages sent at the same time as the last one loaded may be missing
+        coveredFrom = count < maxMessages ? windowStart : lastSent + 1;
+    }
+
+    /**
+     * Adds or replaces a committed message, or removes it if it is no longer within the covered period.
+     *
+     * @param message the message as it is stored in the database
+     * @param now     the current time in epoch milliseconds
+     */
+    void put(CachedMessage message, long now) {
+        evictOlderThan(now - windowMs);
+        if (!byId.containsKey(message.id) && byId.size() >= maxMessages) {
+            // Covering a shorter period completely is better than covering a longer one with holes
+            evictOlderThan(bySent.first().sent + 1);
+        }
+        if (message.sent < coveredFrom) {
+            remove(message.id);
+            return;
+        }
+
+        // Replaced in place, so that readers never miss a message which is being updated
+        CachedMessage previous = byId.put(message.id, message);
+        if (previous != null) {
+            bySent.remove(previous);
+        }
+        bySent.add(message);
+    }
+
+    private void remove(int id) {
+        CachedMessage previous = byId.remove(id);
+        if (previous != null) {
+            bySent.remove(previous);
+        }
+    }
+
+    /**
+     * Sets the weather of a cached message, unless it has moved, matching the conditional update in the database.
+     */
+    void putWeather(int id, double latitude, double longitude, String weather, long now) {
+        CachedMessage message = byId.get(id);
+        if (message != null && message.latitude == latitude && message.longitude == longitude) {
+            put(message.withWeather(weather), now);
+        }
+    }
+
+    private void evictOlderThan(long start) {
+        if (start <= coveredFrom) {
+            return;
+        }
+        // The period is shrunk before the messages go, so a reader never trusts a period with messages missing
+        coveredFrom = start;
+        while (!bySent.isEmpty() && bySent.first().sent < start) {
+            byId.remove(bySent.pollFirst().id);
+        }
+    }
+
+    /**
+     * Finds a page of the cached messages matching the filter, in id order.
+     * The result is only complete if {@link #coveredFrom()} is still at or before the start of the period afterwards.
+     *
+     * @param page   the page to find
+     * @param filter selects the messages
+     * @return the messages of the page
+     */
+    List<CachedMessage> find(Page page, Predicate<CachedMessage> filter) {
+        List<CachedMessage> result = new ArrayList<>();
+        int limit = page.getLimit();
+        for (CachedMessage message : byId.tailMap((int) Math.min(page.getAfter(), Integer.MAX_VALUE), false).values()) {
+            if (filter.test(message)) {
+                result.add(message);
+                if (result.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return byId.size();
+    }
+
+    /**
+     * An immutable copy of a stored message, together with its JSON encoding.
+     */
+    static final class CachedMessage {
+
+        final int id;
+        final double latitude;
+        final double longitude;
+        final long sent;
+        private final String nickname;
+        private final String dangerType;
+        private final String areaCode;
+        private final String phoneNumber;
+        private final String weather;
+        private final String updateReason;
+        private final long modified;
+        private final String json;
+
+        CachedMessage(int id, String nickname, double latitude, double longitude, long sent, String dangerType,
+                      String areaCode, String phoneNumber, String weather, String updateReason, long modified) {
+            this.id = id;
+            this.nickname = nickname;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.sent = sent;
+            this.dangerType = dangerType;
+            this.areaCode = areaCode;
+            this.phoneNumber = phoneNumber;
+            this.weather = weather;
+            this.updateReason = updateReason;
+            this.modified = modified;
+            this.json = encode();
+        }
+
+        static CachedMessage of(ResultSet rs) throws SQLException {
+            return new CachedMessage(rs.getInt("id"), rs.getString("nickname"), rs.getDouble("latitude"),
+                    rs.getDouble("longitude"), rs.getLong("sent"), rs.getString("dangertype"), rs.getString("areacode"),
+                    rs.getString("phonenumber"), rs.getString("weather"), rs.getString("updatereason"), rs.getLong("modified"));
+        }
+
+        CachedMessage withWeather(String weather) {
+            return new CachedMessage(id, nickname, latitude, longitude, sent, dangerType, areaCode, phoneNumber,
+                    weather, updateReason, modified);
+        }
+
+        /**
+         * {@return the message encoded the same way as {@link MessageDatabase#writeMessage} encodes it}
+         */
+        String json() {
+            return json;
+        }
+
+        private String encode() {
+            StringWriter out = new StringWriter(256);
+            JsonStreamWriter writer = new JsonStreamWriter(out);
+            try {
+                writer.beginObject();
+                writer.name("id").value(id);
+                writer.name("nickname").value(nickname);
+                writer.name("latitude").value(latitude);
+                writer.name("longitude").value(longitude);
+                writer.name("sent").dateValue(sent);
+                writer.name("dangertype").value(dangerType);
+                if (areaCode != null) {
+                    writer.name("areacode").value(areaCode);
+                }
+                if (phoneNumber != null) {
+                    writer.name("phonenumber").value(phoneNumber);
+                }
+                if (updateReason != null) {
+                    writer.name("updatereason").value(updateReason);
+                }
+                if (modified != 0) {
+                    writer.name("modified").dateValue(modified);
+                }
+                if (weather != null) {
+                    writer.name("weather").value(weather);
+                }
+                writer.endObject();
+            } catch (IOException e) {
+                // A StringWriter never fails
+                throw new UncheckedIOException(e);
+            }
+            return out.toString();
+        }
+    }
+
+}
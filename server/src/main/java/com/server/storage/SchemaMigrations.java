@@ -0,0 +1,111 @@
+package com.server.storage;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Versioned schema migrations for the database.
+ * <p>
+ * The schema version of a database file is stored in SQLite's {@code user_version} header field.
+ * On startup every migration newer than the stored version is run in order, each in its own transaction,
+ * so both new and existing databases end up with the latest schema.
+ * Migrations must never be edited or reordered once released, changes go into a new migration instead.
+ */
+final class SchemaMigrations {
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Create users and messages tables",
+                    DBQueries.CREATE_TABLE_USERS,
+                    DBQueries.CREATE_TABLE_MESSAGES),
+            new Migration(2, "Add R*Tree index for location queries",
+                    DBQueries.CREATE_TABLE_MESSAGES_RTREE,
+                    DBQueries.CREATE_TRIGGER_RTREE_INSERT,
+                    DBQueries.CREATE_TRIGGER_RTREE_UPDATE,
+                    DBQueries.CREATE_TRIGGER_RTREE_DELETE,
+                    DBQueries.FILL_MESSAGES_RTREE),
+            new Migration(3, "Add indexes for time and nickname queries",
+                    DBQueries.CREATE_INDEX_MESSAGES_SENT,
+                    DBQueries.CREATE_INDEX_MESSAGES_NICKNAME),
+            new Migration(4, "Add change sequence numbers for the changes feed",
+                    DBQueries.ADD_COLUMN_MESSAGES_SEQ,
+                    DBQueries.FILL_MESSAGES_SEQ,
+                    DBQueries.CREATE_INDEX_MESSAGES_SEQ,
+                    DBQueries.CREATE_INDEX_MESSAGES_MODIFIED),
+            new Migration(5, "Record the server time of every change for the changes feed",
+                    DBQueries.ADD_COLUMN_MESSAGES_CHANGED,
+                    DBQueries.FILL_MESSAGES_CHANGED,
+                    DBQueries.CREATE_INDEX_MESSAGES_CHANGED,
+                    DBQueries.DROP_INDEX_MESSAGES_MODIFIED)
+    );
+
+    private SchemaMigrations() {
+        // Static utility class
+    }
+
+    /**
+     * {@return the schema version of a fully migrated database}
+     */
+    static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    /**
+     * {@return the schema version of the database}
+     *
+     * @param connection the connection to the database
+     * @throws SQLException if an error occurs while reading the version
+     */
+    static int currentVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            ResultSet rs = statement.executeQuery(DBQueries.GET_SCHEMA_VERSION);
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Runs all migrations newer than the current schema version of the database.
+     * Databases created before versioning have version 0, which is why the early migrations
+     * only create what does not exist yet.
+     *
+     * @param connection the writer connection, in auto-commit mode
+     * @throws SQLException if a migration fails, in which case that migration is rolled back
+     */
+    static void migrate(Connection connection) throws SQLException {
+        int version = currentVersion(connection);
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= version) continue;
+
+            System.out.println("Migrating database to version " + migration.version + ": " + migration.description);
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : migration.statements) {
+                    statement.executeUpdate(sql);
+                }
+                statement.executeUpdate(DBQueries.SET_SCHEMA_VERSION + migration.version);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw new SQLException("Migration to version " + migration.version + " failed: " + e.getMessage(), e);
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static class Migration {
+
+        private final int version;
+        private final String description;
+        private final String[] statements;
+
+        private Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+    }
+
+}
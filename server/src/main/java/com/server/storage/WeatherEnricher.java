@@ -0,0 +1,185 @@
+package com.server.storage;
+
+import com.server.util.Config;
+import com.server.util.WeatherService;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills in the weather of stored messages in the background.
+ * <p>
+ * Messages are stored right away without weather, and queued here. A pool of workers fetches the weather
+ * and writes it to the message, retrying failed fetches with exponential backoff. This way the latency of
+ * submitting a message does not depend on the weather service at all.
+ * Queued work is kept in memory only, so messages still waiting when the server stops will not get their weather.
+ */
+public class WeatherEnricher implements WeatherEnricherMBean, AutoCloseable {
+
+    private static final int WORKERS = Config.getInt("weather.workers", 4);
+    private static final int MAX_QUEUE = Config.getInt("weather.maxQueue", 10000);
+    private static final int MAX_ATTEMPTS = Config.getInt("weather.maxAttempts", 5);
+    private static final long RETRY_BASE_MS = Config.getLong("weather.retryBaseMs", 1000);
+    private static final long RETRY_MAX_MS = Config.getLong("weather.retryMaxMs", 60000);
+
+    private static final String MBEAN_NAME = "com.server:type=WeatherEnricher";
+
+    private final MessageDatabase database;
+    private final WeatherSource weatherSource;
+    private final int maxQueue;
+    private final int maxAttempts;
+    private final long retryBaseMs;
+    private final long retryMaxMs;
+    private final ScheduledExecutorService workers;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public WeatherEnricher(MessageDatabase database) {
+        this(database, WeatherService::getWeatherInfo, WORKERS, MAX_QUEUE, MAX_ATTEMPTS, RETRY_BASE_MS, RETRY_MAX_MS);
+        registerMBean();
+    }
+
+    /**
+     * Creates an enricher which is not registered as an MBean.
+     *
+     * @param database      the database to write the weather to
+     * @param weatherSource fetches the weather of a location
+     * @param workerCount   the amount of worker threads
+     * @param maxQueue      the maximum amount of messages waiting for their weather
+     * @param maxAttempts   how many times the weather of a message is fetched before giving up
+     * @param retryBaseMs   the delay before the first retry, doubled for every further retry
+     * @param retryMaxMs    the maximum delay between retries
+     */
+    WeatherEnricher(MessageDatabase database, WeatherSource weatherSource, int workerCount, int maxQueue, int maxAttempts,
+                    long retryBaseMs, long retryMaxMs) {
+        this.database = database;
+        this.weatherSource = weatherSource;
+        this.maxQueue = maxQueue;
+        this.maxAttempts = maxAttempts;
+        this.retryBaseMs = retryBaseMs;
+        this.retryMaxMs = retryMaxMs;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = new ScheduledThreadPoolExecutor(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "weather-enricher-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a message for fetching its weather.
+     *
+     * @param id        the id of the stored message
+     * @param latitude  the latitude of the message
+     * @param longitude the longitude of the message
+     * @return true if the message was queued, false if the queue is full or the enricher has been closed
+     */
+    public boolean enqueue(int id, double latitude, double longitude) {
+        if (queueDepth.incrementAndGet() > maxQueue) {
+            giveUp();
+            System.err.println("Weather queue is full, message " + id + " will not get weather information");
+            return false;
+        }
+
+        try {
+            workers.execute(() -> enrich(id, latitude, longitude, 1));
+        } catch (RejectedExecutionException e) {
+            giveUp();
+            System.err.println("Weather enricher is closed, message " + id + " will not get weather information");
+            return false;
+        }
+        return true;
+    }
+
+    private void enrich(int id, double latitude, double longitude, int attempt) {
+        try {
+            String weather = weatherSource.getWeatherInfo(latitude, longitude);
+            database.updateWeather(id, latitude, longitude, weather);
+            completed.incrementAndGet();
+            queueDepth.decrementAndGet();
+        } catch (WeatherService.WeatherServiceException | SQLException e) {
+            if (attempt >= maxAttempts || !retry(() -> enrich(id, latitude, longitude, attempt + 1), attempt)) {
+                System.err.println("Giving up on weather for message " + id + " after " + attempt + " attempts: " + e.getMessage());
+                giveUp();
+            }
+        }
+    }
+
+    /**
+     * {@return false if the retry could not be scheduled because the enricher has been closed}
+     */
+    private boolean retry(Runnable task, int attempt) {
+        try {
+            workers.schedule(task, backoff(attempt), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void giveUp() {
+        queueDepth.decrementAndGet();
+        failed.incrementAndGet();
+    }
+
+    private long backoff(int attempt) {
+        long delay = Math.min(retryMaxMs, retryBaseMs << Math.min(attempt - 1, 20));
+        // Jitter keeps retries of messages which failed together from hitting the service together
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(MBEAN_NAME));
+        } catch (JMException e) {
+            System.err.println("Could not register weather enricher MBean: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    @Override
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    @Override
+    public void close() {
+        for (Runnable ignored : workers.shutdownNow()) {
+            // Queued messages and waiting retries which will now never run
+            giveUp();
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(MBEAN_NAME));
+        } catch (JMException e) {
+            // Not registered
+        }
+    }
+
+    /**
+     * Fetches the weather of a location, see {@link WeatherService#getWeatherInfo(double, double)}.
+     */
+    @FunctionalInterface
+    interface WeatherSource {
+        String getWeatherInfo(double latitude, double longitude) throws WeatherService.WeatherServiceException;
+    }
+
+}
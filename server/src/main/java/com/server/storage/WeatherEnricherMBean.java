@@ -0,0 +1,23 @@
+package com.server.storage;
+
+/**
+ * Management interface of {@link WeatherEnricher}, exposed over JMX as {@code com.server:type=WeatherEnricher}.
+ */
+public interface WeatherEnricherMBean {
+
+    /**
+     * {@return the amount of messages waiting for their weather, including ones waiting for a retry}
+     */
+    int getQueueDepth();
+
+    /**
+     * {@return the amount of messages which have been given their weather}
+     */
+    long getCompletedCount();
+
+    /**
+     * {@return the amount of messages which were given up on after all retries, or dropped because the queue was full}
+     */
+    long getFailedCount();
+
+}
@@ -0,0 +1,266 @@
+package com.server.storage;
+
+import com.server.metrics.Counter;
+import com.server.metrics.Histogram;
+import com.server.metrics.Metrics;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Queues write operations and commits them to the database in batched transactions (group commit).
+ * <p>
+ * A single writer thread collects queued writes until either {@code maxBatchSize} writes are pending
+ * or {@code maxDelayMs} milliseconds have passed since the first one, and then runs them all in one transaction.
+ * This way many concurrent writers share a single fsync instead of paying one each.
+ * Every write runs inside its own savepoint, so a failing write does not affect the rest of its batch,
+ * unless SQLite has already rolled back the whole transaction, in which case the whole batch fails.
+ */
+class WriteBatcher implements AutoCloseable {
+
+    // Writes per commit is the ratio of the two counters
+    private static final Counter COMMITS = Metrics.counter("db_commits_total", "Transactions committed by the writer thread").labels();
+    private static final Counter BATCHED_WRITES = Metrics.counter("db_batched_writes_total", "Writes run in committed transactions").labels();
+    private static final Histogram COMMIT_TIME = Metrics.histogram("db_commit_duration_seconds",
+            "Time spent running a batch of writes and committing it").labels();
+
+    private final ConnectionPool pool;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<PendingWrite<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    /**
+     * Creates the batcher and starts its writer thread.
+     *
+     * @param pool         the pool providing the writer connection
+     * @param maxBatchSize the maximum amount of writes committed in one transaction
+     * @param maxDelayMs   how long to wait for more writes after the first write of a batch has been queued
+     */
+    WriteBatcher(ConnectionPool pool, int maxBatchSize, long maxDelayMs) {
+        this.pool = pool;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMs));
+        this.writerThread = new Thread(this::run, "db-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues a write and waits until the transaction containing it has been committed.
+     *
+     * @param write the write to run with the writer connection
+     * @param <T>   the type of the result
+     * @return the result of the write
+     * @throws SQLException if the write or the commit fails
+     */
+    <T> T submit(ConnectionPool.SQLFunction<T> write) throws SQLException {
+        return submit(write, null);
+    }
+
+    /**
+     * Queues a write and waits until the transaction containing it has been committed.
+     * Once committed, the result is passed to {@code committed} on the writer thread, before any later write is
+     * committed, so that in-memory state derived from the writes is updated in the same order as the database.
+     *
+     * @param write     the write to run with the writer connection
+     * @param committed receives the result of a successful write after it has been committed, or null
+     * @param <T>       the type of the result
+     * @return the result of the write
+     * @throws SQLException if the write or the commit fails
+     */
+    <T> T submit(ConnectionPool.SQLFunction<T> write, Consumer<T> committed) throws SQLException {
+        if (!running) {
+            throw new SQLException("Database is closed");
+        }
+
+        PendingWrite<T> pending = new PendingWrite<>(write, committed);
+        queue.add(pending);
+        if (!running && queue.remove(pending)) {
+            // Closed while queueing, the writer thread may already be gone
+            throw new SQLException("Database is closed");
+        }
+        try {
+            return pending.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database write", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException("Database write failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    private void run() {
+        List<PendingWrite<?>> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+
+                batch.add(first);
+                collect(batch, System.nanoTime() + maxDelayNanos);
+                commit(batch);
+            } catch (InterruptedException e) {
+                running = false;
+                failPending();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void collect(List<PendingWrite<?>> batch, long deadline) throws InterruptedException {
+        queue.drainTo(batch, maxBatchSize - batch.size());
+        while (batch.size() < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return;
+
+            PendingWrite<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) return;
+
+            batch.add(next);
+            queue.drainTo(batch, maxBatchSize - batch.size());
+        }
+    }
+
+    private void commit(List<PendingWrite<?>> batch) {
+        long start = System.nanoTime();
+        try {
+            pool.write(pooled -> {
+                Connection connection = pooled.connection();
+                connection.setAutoCommit(false);
+                try {
+                    for (PendingWrite<?> write : batch) {
+                        write.apply(pooled);
+                    }
+                    connection.commit();
+                } catch (SQLException | RuntimeException e) {
+                    rollback(connection, null, e);
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+                return null;
+            });
+        } catch (SQLException | RuntimeException e) {
+            for (PendingWrite<?> write : batch) {
+                write.result.completeExceptionally(e);
+            }
+            return;
+        } finally {
+            COMMIT_TIME.recordSince(start);
+        }
+        COMMITS.increment();
+        BATCHED_WRITES.add(batch.size());
+
+        // Results are only handed out once the whole batch is durable
+        for (PendingWrite<?> write : batch) {
+            write.complete();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failPending();
+    }
+
+    private void failPending() {
+        PendingWrite<?> pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.completeExceptionally(new SQLException("Database is closed"));
+        }
+    }
+
+    /**
+     * Rolls back the transaction, or only the savepoint if one is given, after {@code cause} made it fail.
+     * SQLite rolls back the whole transaction on its own after some errors, like SQLITE_FULL,
+     * in which case the rollback itself fails. That failure is attached to {@code cause},
+     * so that the original error is the one reported.
+     *
+     * @return true if the rollback succeeded
+     */
+    private static boolean rollback(Connection connection, Savepoint savepoint, Exception cause) {
+        try {
+            if (savepoint == null) {
+                connection.rollback();
+            } else {
+                connection.rollback(savepoint);
+            }
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            cause.addSuppressed(e);
+            return false;
+        }
+    }
+
+    /**
+     * A queued write and the future its submitter is waiting on.
+     */
+    private static class PendingWrite<T> {
+
+        private final ConnectionPool.SQLFunction<T> write;
+        private final Consumer<T> committed;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private T value;
+        private Exception error;
+
+        private PendingWrite(ConnectionPool.SQLFunction<T> write, Consumer<T> committed) {
+            this.write = write;
+            this.committed = committed;
+        }
+
+        private void apply(PooledConnection pooled) throws SQLException {
+            Connection connection = pooled.connection();
+            Savepoint savepoint = connection.setSavepoint();
+            try {
+                value = write.apply(pooled);
+                connection.releaseSavepoint(savepoint);
+            } catch (SQLException | RuntimeException e) {
+                if (!rollback(connection, savepoint, e)) {
+                    // The transaction is gone, so the earlier writes of the batch are lost as well
+                    throw e;
+                }
+                error = e;
+            }
+        }
+
+        private void complete() {
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            if (committed != null) {
+                try {
+                    committed.accept(value);
+                } catch (RuntimeException e) {
+                    // The write itself has been committed, so it still succeeded
+                    System.err.println("Error while handling a committed write");
+                    e.printStackTrace();
+                }
+            }
+            result.complete(value);
+        }
+    }
+
+}
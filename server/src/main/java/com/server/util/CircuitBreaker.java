@@ -0,0 +1,75 @@
+package com.server.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A circuit breaker for calls to an external service.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the circuit opens, and calls are rejected
+ * without contacting the service for {@code openMs} milliseconds. After that a single trial call is let through:
+ * if it succeeds the circuit closes again, if it fails the circuit stays open for another period.
+ */
+public final class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openMs;
+    private final AtomicInteger failures = new AtomicInteger();
+    // The time until which the circuit is open, or 0 if it is closed
+    private final AtomicLong openUntil = new AtomicLong();
+    private final AtomicBoolean trialInFlight = new AtomicBoolean();
+    private final LongSupplier clock;
+
+    /**
+     * @param failureThreshold the amount of consecutive failures which opens the circuit
+     * @param openMs           how long the circuit stays open before a trial call, in milliseconds
+     */
+    public CircuitBreaker(int failureThreshold, long openMs) {
+        this(failureThreshold, openMs, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(int failureThreshold, long openMs, LongSupplier clock) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMs = openMs;
+        this.clock = clock;
+    }
+
+    /**
+     * {@return true if a call may be made now, false if it should be rejected}
+     * A caller which gets true must report the outcome with {@link #recordSuccess()} or {@link #recordFailure()}.
+     */
+    public boolean allowRequest() {
+        long until = openUntil.get();
+        if (until == 0) {
+            return true;
+        }
+        if (clock.getAsLong() < until) {
+            return false;
+        }
+        // Half open, only one trial call at a time
+        return trialInFlight.compareAndSet(false, true);
+    }
+
+    public void recordSuccess() {
+        failures.set(0);
+        openUntil.set(0);
+        trialInFlight.set(false);
+    }
+
+    public void recordFailure() {
+        if (trialInFlight.compareAndSet(true, false) || failures.incrementAndGet() >= failureThreshold) {
+            openUntil.set(clock.getAsLong() + openMs);
+        }
+    }
+
+    /**
+     * {@return true if calls are currently being rejected}
+     */
+    public boolean isOpen() {
+        long until = openUntil.get();
+        return until != 0 && clock.getAsLong() < until;
+    }
+
+}
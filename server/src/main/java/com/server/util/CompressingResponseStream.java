@@ -0,0 +1,124 @@
+package com.server.util;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A response body of unknown length, which is compressed if it turns out to be large enough.
+ * <p>
+ * The first bytes are held back until the threshold is exceeded. Only then are the headers sent, with the
+ * {@code Content-Encoding} header, and the rest of the body is compressed as it is written, using chunked transfer encoding.
+ * A body which never exceeds the threshold is sent uncompressed with its exact length once the stream is closed.
+ * Flushing before that does nothing, since the response cannot be started before its encoding is known.
+ */
+class CompressingResponseStream extends OutputStream {
+
+    private final HttpExchange exchange;
+    private final int code;
+    private final String encoding;
+    private final int level;
+    private final byte[] pending;
+    private int pendingCount;
+    // Null until the headers have been sent
+    private OutputStream out;
+    private boolean closed;
+
+    /**
+     * @param exchange  the exchange to respond to
+     * @param code      the HTTP response code
+     * @param encoding  the negotiated encoding, {@code gzip} or {@code deflate}
+     * @param level     the compression level, from 1 to 9
+     * @param threshold the size of the smallest body worth compressing
+     */
+    CompressingResponseStream(HttpExchange exchange, int code, String encoding, int level, int threshold) {
+        this.exchange = exchange;
+        this.code = code;
+        this.encoding = encoding;
+        this.level = level;
+        this.pending = new byte[threshold];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (out == null) {
+            if (pendingCount + len <= pending.length) {
+                System.arraycopy(b, off, pending, pendingCount, len);
+                pendingCount += len;
+                return;
+            }
+            startCompressed();
+        }
+        out.write(b, off, len);
+    }
+
+    private void startCompressed() throws IOException {
+        exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        exchange.sendResponseHeaders(code, 0);
+        out = compressor(exchange.getResponseBody(), encoding, level);
+        out.write(pending, 0, pendingCount);
+    }
+
+    /**
+     * Creates a stream which compresses what is written to it with the given encoding.
+     *
+     * @param out      the stream to write the compressed bytes to
+     * @param encoding {@code gzip} or {@code deflate}
+     * @param level    the compression level, from 1 to 9
+     * @return the compressing stream, which must be closed to finish the compressed data and release the compressor
+     * @throws IOException if an I/O error occurs
+     */
+    static OutputStream compressor(OutputStream out, String encoding, int level) throws IOException {
+        if ("gzip".equals(encoding)) {
+            return new GZIPOutputStream(out, 8192) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+        return new DeflaterOutputStream(out, new Deflater(level), 8192) {
+            @Override
+            public void close() throws IOException {
+                // The deflater was not created by the stream, so the stream does not release it either
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (out != null) {
+            out.close();
+            return;
+        }
+        exchange.sendResponseHeaders(code, pendingCount == 0 ? -1 : pendingCount);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(pending, 0, pendingCount);
+        }
+    }
+
+}
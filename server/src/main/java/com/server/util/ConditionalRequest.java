@@ -0,0 +1,106 @@
+package com.server.util;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Utility class for conditional GET requests (RFC 9110, section 13).
+ * <p>
+ * A response is described by an entity tag, which changes whenever the content changes, and the time it was last modified.
+ * A client which already has the current content sends them back in {@code If-None-Match} or {@code If-Modified-Since},
+ * and can then be answered with {@code 304 Not Modified} instead of the content.
+ */
+public final class ConditionalRequest {
+
+    // IMF-fixdate, eg. Sun, 06 Nov 1994 08:49:37 GMT
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    private ConditionalRequest() {
+        // Static utility class
+    }
+
+    /**
+     * Sets the validators of the response, and checks if the client already has the current version of it.
+     * <p>
+     * {@code If-None-Match} takes precedence over {@code If-Modified-Since}, as dates only have a resolution of a second.
+     * For the same reason {@code Last-Modified} is only sent once the second of the last modification has passed,
+     * so that a client can never hold a date which is older than a change made in the same second.
+     *
+     * @param exchange       The HttpExchange object
+     * @param etag           The entity tag of the current version, without quotes
+     * @param lastModifiedMs The time the content was last modified, in epoch milliseconds
+     * @return true if the client's copy is current and a 304 Not Modified response should be sent, false otherwise
+     */
+    public static boolean isNotModified(HttpExchange exchange, String etag, long lastModifiedMs) {
+        long lastModifiedSecond = Math.floorDiv(lastModifiedMs, 1000) * 1000;
+        boolean lastModifiedSettled = lastModifiedSecond < Math.floorDiv(System.currentTimeMillis(), 1000) * 1000;
+
+        Headers response = exchange.getResponseHeaders();
+        // Weak, since the same version is sent both compressed and uncompressed, see ResponseUtil
+        response.set("ETag", "W/" + quote(etag));
+        if (lastModifiedSettled) {
+            response.set("Last-Modified", HTTP_DATE.format(Instant.ofEpochMilli(lastModifiedSecond)));
+        }
+
+        Headers request = exchange.getRequestHeaders();
+        String ifNoneMatch = request.getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matches(ifNoneMatch, etag);
+        }
+
+        String ifModifiedSince = request.getFirst("If-Modified-Since");
+        if (ifModifiedSince != null && lastModifiedSettled) {
+            long since = parseHttpDate(ifModifiedSince);
+            return since >= 0 && lastModifiedSecond <= since;
+        }
+        return false;
+    }
+
+    /**
+     * {@return true if an If-None-Match header value matches the given entity tag, using the weak comparison}
+     *
+     * @param ifNoneMatch The header value, a comma-separated list of entity tags or {@code *}
+     * @param etag        The entity tag, without quotes
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(quote(etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@return the epoch milliseconds of an HTTP date, or -1 if it is not a valid date}
+     *
+     * @param date The date, in the format of RFC 1123
+     */
+    static long parseHttpDate(String date) {
+        try {
+            return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static String quote(String etag) {
+        return '"' + etag + '"';
+    }
+
+}
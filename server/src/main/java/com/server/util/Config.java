@@ -0,0 +1,95 @@
+package com.server.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Utility class for reading server configuration.
+ * <p>
+ * Values are read from an optional {@code server.properties} file in the working directory.
+ * System properties (eg. {@code -Ddb.readers=8}) take precedence over the file.
+ */
+public final class Config {
+
+    private static final String CONFIG_FILE = "server.properties";
+    private static final Properties FILE_PROPERTIES = loadFile();
+
+    private Config() {
+        // Static utility class
+    }
+
+    private static Properties loadFile() {
+        Properties properties = new Properties();
+        Path path = Path.of(CONFIG_FILE);
+        if (!Files.isRegularFile(path)) {
+            return properties;
+        }
+
+        try (InputStream in = new FileInputStream(path.toFile())) {
+            properties.load(in);
+        } catch (IOException e) {
+            System.err.println("Error while reading " + CONFIG_FILE + ": " + e.getMessage());
+        }
+        return properties;
+    }
+
+    /**
+     * {@return the configured value for the given key, or the default value if not set}
+     *
+     * @param key          The configuration key
+     * @param defaultValue The value to use if the key is not set
+     */
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = FILE_PROPERTIES.getProperty(key);
+        }
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    /**
+     * {@return the configured integer value for the given key, or the default value if not set or invalid}
+     *
+     * @param key          The configuration key
+     * @param defaultValue The value to use if the key is not set
+     */
+    public static int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    /**
+     * {@return the configured long value for the given key, or the default value if not set or invalid}
+     *
+     * @param key          The configuration key
+     * @param defaultValue The value to use if the key is not set
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * {@return the configured boolean value for the given key, or the default value if not set}
+     *
+     * @param key          The configuration key
+     * @param defaultValue The value to use if the key is not set
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.server.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * A small pool of reusable instances of a class which is expensive to create and not thread safe,
+ * like {@link javax.crypto.Mac} or {@link javax.xml.parsers.DocumentBuilder}.
+ * <p>
+ * Unlike a {@link ThreadLocal}, the pool does not depend on threads living long: with a thread per request,
+ * as with virtual threads, a thread local instance would be created for every request and then thrown away.
+ * The pool never blocks. If it is empty a new instance is created, and if it is full a returned instance is dropped,
+ * so the pool only bounds how many idle instances are kept.
+ *
+ * @param <T> the type of the instances
+ */
+public final class InstancePool<T> {
+
+    private final BlockingQueue<T> idle;
+    private final Supplier<T> factory;
+
+    /**
+     * @param maxIdle the maximum amount of idle instances kept for reuse
+     * @param factory creates a new instance when none is idle
+     */
+    public InstancePool(int maxIdle, Supplier<T> factory) {
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, maxIdle));
+        this.factory = factory;
+    }
+
+    /**
+     * Creates a pool keeping up to twice as many idle instances as there are processors.
+     *
+     * @param factory creates a new instance when none is idle
+     */
+    public InstancePool(Supplier<T> factory) {
+        this(Runtime.getRuntime().availableProcessors() * 2, factory);
+    }
+
+    /**
+     * Takes an idle instance, or creates a new one if none is idle.
+     * The caller has exclusive use of the instance until it gives it back with {@link #release(Object)}.
+     *
+     * @return the instance
+     */
+    public T acquire() {
+        T instance = idle.poll();
+        return instance != null ? instance : factory.get();
+    }
+
+    /**
+     * Gives an instance back for reuse. The instance must be in its initial state again,
+     * and it must not be used by the caller anymore.
+     *
+     * @param instance the instance acquired with {@link #acquire()}
+     */
+    public void release(T instance) {
+        idle.offer(instance);
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.server.util;
+
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A minimal streaming JSON writer, which writes values straight to a {@link Writer}
+ * instead of building the whole document in memory first.
+ * <p>
+ * Strings and numbers are encoded the same way as {@link JSONObject} encodes them.
+ * The writer does not validate the structure of the document, so callers are responsible for
+ * pairing {@code begin} and {@code end} calls and for calling {@link #name(String)} before object values.
+ */
+public class JsonStreamWriter implements Closeable {
+
+    private static final int MAX_DEPTH = 32;
+
+    private final Writer out;
+    // Whether the next value at each nesting level is the first one, ie. does not need a separating comma
+    private final boolean[] first = new boolean[MAX_DEPTH];
+    // Holds a quoted date, reused for every date written
+    private final char[] dateBuffer = new char[TimeUtil.DATE_LENGTH + 2];
+    private int depth;
+    private boolean afterName;
+
+    public JsonStreamWriter(Writer out) {
+        this.out = out;
+        this.first[0] = true;
+    }
+
+    public JsonStreamWriter beginArray() throws IOException {
+        return begin('[');
+    }
+
+    public JsonStreamWriter endArray() throws IOException {
+        return end(']');
+    }
+
+    public JsonStreamWriter beginObject() throws IOException {
+        return begin('{');
+    }
+
+    public JsonStreamWriter endObject() throws IOException {
+        return end('}');
+    }
+
+    /**
+     * Writes the name of the next object member.
+     *
+     * @param name The member name
+     * @return this writer
+     * @throws IOException If an I/O error occurs
+     */
+    public JsonStreamWriter name(String name) throws IOException {
+        separate();
+        JSONObject.quote(name, out);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonStreamWriter value(String value) throws IOException {
+        separate();
+        if (value == null) {
+            out.write("null");
+        } else {
+            JSONObject.quote(value, out);
+        }
+        return this;
+    }
+
+    public JsonStreamWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonStreamWriter value(double value) throws IOException {
+        separate();
+        out.write(JSONObject.numberToString(value));
+        return this;
+    }
+
+    /**
+     * Writes epoch milliseconds as a date string in the format of {@link TimeUtil#epochMilliToDateString(long)}.
+     *
+     * @param epochMs The epoch milliseconds
+     * @return this writer
+     * @throws IOException If an I/O error occurs
+     */
+    public JsonStreamWriter dateValue(long epochMs) throws IOException {
+        int length = TimeUtil.formatTo(epochMs, dateBuffer, 1);
+        if (length < 0) {
+            return value(TimeUtil.epochMilliToDateString(epochMs));
+        }
+        separate();
+        dateBuffer[0] = '"';
+        dateBuffer[length + 1] = '"';
+        out.write(dateBuffer, 0, length + 2);
+        return this;
+    }
+
+    /**
+     * Writes a value which is already encoded as JSON, eg. a cached object.
+     *
+     * @param json The encoded value, which is written as is
+     * @return this writer
+     * @throws IOException If an I/O error occurs
+     */
+    public JsonStreamWriter rawValue(String json) throws IOException {
+        separate();
+        out.write(json);
+        return this;
+    }
+
+    /**
+     * Writes a value which is already encoded as JSON, or several values separated by commas.
+     *
+     * @param json   The buffer holding the encoded value
+     * @param offset The start of the value in the buffer
+     * @param length The length of the value
+     * @return this writer
+     * @throws IOException If an I/O error occurs
+     */
+    public JsonStreamWriter rawValue(char[] json, int offset, int length) throws IOException {
+        separate();
+        out.write(json, offset, length);
+        return this;
+    }
+
+    /**
+     * Ends a top level value with a line break, so that the next value starts on a new line instead of after a comma,
+     * as in newline delimited JSON.
+     *
+     * @return this writer
+     * @throws IOException If an I/O error occurs
+     */
+    public JsonStreamWriter lineBreak() throws IOException {
+        out.write('\n');
+        first[depth] = true;
+        return this;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private JsonStreamWriter begin(char bracket) throws IOException {
+        separate();
+        if (depth + 1 >= MAX_DEPTH) {
+            throw new IllegalStateException("JSON nested too deeply");
+        }
+        out.write(bracket);
+        first[++depth] = true;
+        return this;
+    }
+
+    private JsonStreamWriter end(char bracket) throws IOException {
+        out.write(bracket);
+        depth--;
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            // Values following a name are never preceded by a comma
+            afterName = false;
+            return;
+        }
+        if (!first[depth]) {
+            out.write(',');
+        }
+        first[depth] = false;
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.server.util;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request body is larger than the server accepts, see {@link RequestUtil#limitedBody(com.sun.net.httpserver.HttpExchange, int)}.
+ * Handlers answer it with 413 Content Too Large.
+ */
+public class RequestTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RequestTooLargeException(int maxBytes) {
+        super("Request body is larger than " + maxBytes + " bytes");
+    }
+
+}
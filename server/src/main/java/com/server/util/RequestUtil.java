@@ -0,0 +1,154 @@
+package com.server.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Utility class for reading HTTP requests.
+ * <p>
+ * Request bodies are parsed as they are read, and reading stops with a {@link RequestTooLargeException} as soon as
+ * a body exceeds its limit, so an oversized body is never held in memory, and with a Content-Length header not read at all.
+ */
+public final class RequestUtil {
+
+    /**
+     * The default limit of request bodies. Warnings and registrations are a few hundred bytes.
+     */
+    public static final int MAX_BODY_BYTES = Config.getInt("request.maxBytes", 64 * 1024);
+
+    private RequestUtil() {
+        // Static utility class
+    }
+
+    /**
+     * Parses the query string of a request URI, eg. {@code ?after=10&limit=50}.
+     * If a parameter is given more than once, the first value is used.
+     *
+     * @param uri The request URI
+     * @return The decoded parameters by name, empty if the URI has no query string
+     */
+    public static Map<String, String> queryParameters(URI uri) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = uri.getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) continue;
+            int separator = pair.indexOf('=');
+            String name = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            parameters.putIfAbsent(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    /**
+     * Parses a request body of at most {@link #MAX_BODY_BYTES} as a JSON object.
+     *
+     * @param exchange The HttpExchange object
+     * @return The parsed object
+     * @throws RequestTooLargeException If the body is too large
+     * @throws JSONException            If the body is not a single JSON object
+     * @throws IOException              If an I/O error occurs
+     */
+    public static JSONObject readJsonObject(HttpExchange exchange) throws IOException {
+        return readJsonObject(limitedBody(exchange, MAX_BODY_BYTES));
+    }
+
+    static JSONObject readJsonObject(InputStream body) throws IOException {
+        JSONTokener tokener = new JSONTokener(new InputStreamReader(body, StandardCharsets.UTF_8));
+        try {
+            JSONObject json = new JSONObject(tokener);
+            if (tokener.nextClean() != 0) {
+                throw tokener.syntaxError("Unexpected content after the JSON object");
+            }
+            return json;
+        } catch (JSONException e) {
+            // The tokener wraps errors of the underlying stream
+            if (e.getCause() instanceof RequestTooLargeException) {
+                throw (RequestTooLargeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the body of a request, which fails once more than {@code maxBytes} bytes have been read from it.
+     * A body announced larger than that by its Content-Length header is rejected right away.
+     *
+     * @param exchange The HttpExchange object
+     * @param maxBytes The maximum size of the body in bytes
+     * @return The body
+     * @throws RequestTooLargeException If the Content-Length header exceeds the limit
+     */
+    public static InputStream limitedBody(HttpExchange exchange, int maxBytes) throws RequestTooLargeException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                if (Long.parseLong(contentLength.trim()) > maxBytes) {
+                    throw new RequestTooLargeException(maxBytes);
+                }
+            } catch (NumberFormatException e) {
+                // The server rejects malformed lengths itself, the limit below still applies
+            }
+        }
+        return limit(exchange.getRequestBody(), maxBytes);
+    }
+
+    static InputStream limit(InputStream in, int maxBytes) {
+        return new LimitedInputStream(in, maxBytes);
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private final int maxBytes;
+        private long remaining;
+
+        private LimitedInputStream(InputStream in, int maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+            this.remaining = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            // Reads at most one byte more than allowed, which is enough to tell that the body is too large
+            int n = in.read(b, off, (int) Math.min(len, remaining + 1));
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) throws RequestTooLargeException {
+            remaining -= n;
+            if (remaining < 0) {
+                throw new RequestTooLargeException(maxBytes);
+            }
+        }
+    }
+
+}
@@ -2,14 +2,26 @@ package com.server.util;
 
 import com.sun.net.httpserver.HttpExchange;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.Deflater;
 
 /**
  * Utility class for sending HTTP responses.
+ * <p>
+ * Response bodies larger than {@code compression.minBytes} are compressed with gzip or deflate if the client accepts it.
+ * Smaller bodies are not worth the extra work, as they fit in a packet or two either way.
+ * The default level 1 compresses a page of warnings to about a fifth of its size in half the time of the
+ * default level of {@link Deflater}, which only makes the result some 10% smaller.
  */
 public class ResponseUtil {
 
+    private static final int COMPRESSION_MIN_BYTES = Config.getInt("compression.minBytes", 1024);
+    private static final int COMPRESSION_LEVEL = Config.getInt("compression.level", 1);
+
     private ResponseUtil() {
         // Static utility class
     }
@@ -24,6 +36,13 @@ public class ResponseUtil {
      */
     public static void sendResponse(HttpExchange exchange, int code, String response) throws IOException {
         byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
+        if (responseBytes.length > COMPRESSION_MIN_BYTES) {
+            String encoding = negotiateEncoding(exchange);
+            if (encoding != null) {
+                responseBytes = compress(responseBytes, encoding);
+                exchange.getResponseHeaders().set("Content-Encoding", encoding);
+            }
+        }
         exchange.sendResponseHeaders(code, responseBytes.length);
         exchange.getResponseBody().write(responseBytes);
         exchange.getResponseBody().close();
@@ -50,4 +69,102 @@ public class ResponseUtil {
         exchange.sendResponseHeaders(204, -1);
         exchange.getResponseBody().close();
     }
+
+    /**
+     * Sends a 304 Not Modified response to the client.
+     *
+     * @param exchange The HttpExchange object
+     * @throws IOException If an I/O error occurs
+     */
+    public static void sendNotModified(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(304, -1);
+        exchange.getResponseBody().close();
+    }
+
+    /**
+     * Starts a response with a body of unknown length, which is sent using chunked transfer encoding,
+     * and compressed if the client accepts it and the body is large enough.
+     * The headers may not be sent before the body is closed, and flushing may not send anything,
+     * so the returned stream is not suited for responses which must reach the client as they are written.
+     * The returned stream must be closed to finish the response.
+     *
+     * @param exchange    The HttpExchange object
+     * @param code        The HTTP response code
+     * @param contentType The content type of the response body
+     * @return The stream to write the response body to
+     * @throws IOException If an I/O error occurs
+     */
+    public static OutputStream openStream(HttpExchange exchange, int code, String contentType) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        String encoding = negotiateEncoding(exchange);
+        if (encoding != null) {
+            return new CompressingResponseStream(exchange, code, encoding, COMPRESSION_LEVEL, COMPRESSION_MIN_BYTES);
+        }
+        exchange.sendResponseHeaders(code, 0);
+        return exchange.getResponseBody();
+    }
+
+    /**
+     * {@return the content encoding to compress the response with, or null to send it uncompressed}
+     * The response is marked to vary by {@code Accept-Encoding} either way, so caches keep the encodings apart.
+     */
+    private static String negotiateEncoding(HttpExchange exchange) {
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+        return preferredEncoding(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+    }
+
+    /**
+     * Picks the encoding of a response from an {@code Accept-Encoding} header, preferring gzip over deflate
+     * when the client accepts both equally.
+     *
+     * @param acceptEncoding The header value, or null
+     * @return {@code gzip}, {@code deflate} or null if the client accepts neither
+     */
+    static String preferredEncoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzip = quality;
+            } else if (coding.equals("deflate")) {
+                deflate = quality;
+            } else if (coding.equals("*")) {
+                any = quality;
+            }
+        }
+
+        // Codings not listed get the quality of "*", if it is given
+        if (gzip < 0) gzip = any;
+        if (deflate < 0) deflate = any;
+        if (gzip > 0 && gzip >= deflate) {
+            return "gzip";
+        }
+        return deflate > 0 ? "deflate" : null;
+    }
+
+    private static byte[] compress(byte[] bytes, String encoding) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+        try (OutputStream out = CompressingResponseStream.compressor(compressed, encoding, COMPRESSION_LEVEL)) {
+            out.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
 }
@@ -8,10 +8,28 @@ import java.time.format.DateTimeFormatter;
 
 /**
  * Utility class for time related operations.
+ * <p>
+ * Dates are exchanged in a fixed ISO-8601 format with millisecond precision, eg. {@code 2024-01-22T13:45:12.345Z}.
+ * Dates in UTC between the years 1 and 9999 are converted by hand, without allocating intermediate objects,
+ * since every returned message contains one or two of them. Anything else, such as other offsets or invalid input,
+ * goes through a {@link DateTimeFormatter}, so the results are always the same as the formatter's.
  */
 public final class TimeUtil {
 
+    /**
+     * The length of a date string in UTC between the years 1 and 9999.
+     */
+    public static final int DATE_LENGTH = 24;
+
     private static final String DATE_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSSX";
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(DATE_PATTERN);
+
+    private static final long MS_PER_DAY = 24 * 60 * 60 * 1000;
+    // Days from 0000-03-01 to 1970-01-01, see days_from_civil in https://howardhinnant.github.io/date_algorithms.html
+    private static final long EPOCH_SHIFT_DAYS = 719_468;
+    private static final long DAYS_PER_ERA = 146_097;
+    // Returned by the fast parser for input it does not handle, never a valid result for the years it does handle
+    private static final long NOT_PARSED = Long.MIN_VALUE;
 
     private TimeUtil() {
         // Static utility class
@@ -25,7 +43,11 @@ public final class TimeUtil {
      * @throws DateTimeException If the date string is invalid or is not in the correct format
      */
     public static long dateStringToEpochMilli(String date) throws DateTimeException {
-        return ZonedDateTime.parse(date, DateTimeFormatter.ofPattern(DATE_PATTERN)).toInstant().toEpochMilli();
+        long epochMs = parseUtc(date);
+        if (epochMs != NOT_PARSED) {
+            return epochMs;
+        }
+        return ZonedDateTime.parse(date, FORMATTER).toInstant().toEpochMilli();
     }
 
     /**
@@ -35,7 +57,127 @@ public final class TimeUtil {
      * @return The date string
      */
     public static String epochMilliToDateString(long epochMs) {
-        return Instant.ofEpochMilli(epochMs).atZone(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern(DATE_PATTERN));
+        char[] buffer = new char[DATE_LENGTH];
+        if (formatTo(epochMs, buffer, 0) > 0) {
+            return new String(buffer);
+        }
+        return Instant.ofEpochMilli(epochMs).atZone(ZoneOffset.UTC).format(FORMATTER);
+    }
+
+    /**
+     * Writes the date string of the given epoch milliseconds into a buffer, so that a caller formatting many dates
+     * can reuse the same buffer instead of allocating a string for each.
+     *
+     * @param epochMs The epoch milliseconds
+     * @param buffer  The buffer to write to, with room for at least {@link #DATE_LENGTH} characters after the offset
+     * @param offset  The position of the first character
+     * @return {@link #DATE_LENGTH}, or -1 if nothing was written because the year is outside 1 - 9999,
+     * in which case {@link #epochMilliToDateString(long)} must be used instead
+     */
+    public static int formatTo(long epochMs, char[] buffer, int offset) {
+        long days = Math.floorDiv(epochMs, MS_PER_DAY);
+        int msOfDay = (int) Math.floorMod(epochMs, MS_PER_DAY);
+
+        // civil_from_days, with years starting from March so that the leap day is the last day of the year
+        long shifted = days + EPOCH_SHIFT_DAYS;
+        long era = Math.floorDiv(shifted, DAYS_PER_ERA);
+        int dayOfEra = (int) (shifted - era * DAYS_PER_ERA);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = era * 400 + yearOfEra + (month <= 2 ? 1 : 0);
+        if (year < 1 || year > 9999) {
+            return -1;
+        }
+
+        int time = msOfDay / 1000;
+        writeDigits(buffer, offset, (int) year, 4);
+        buffer[offset + 4] = '-';
+        writeDigits(buffer, offset + 5, month, 2);
+        buffer[offset + 7] = '-';
+        writeDigits(buffer, offset + 8, day, 2);
+        buffer[offset + 10] = 'T';
+        writeDigits(buffer, offset + 11, time / 3600, 2);
+        buffer[offset + 13] = ':';
+        writeDigits(buffer, offset + 14, time / 60 % 60, 2);
+        buffer[offset + 16] = ':';
+        writeDigits(buffer, offset + 17, time % 60, 2);
+        buffer[offset + 19] = '.';
+        writeDigits(buffer, offset + 20, msOfDay % 1000, 3);
+        buffer[offset + 23] = 'Z';
+        return DATE_LENGTH;
+    }
+
+    /**
+     * {@return the epoch milliseconds of a valid date string in UTC between the years 1 and 9999, or NOT_PARSED}
+     */
+    private static long parseUtc(String date) {
+        if (date.length() != DATE_LENGTH
+                || date.charAt(4) != '-' || date.charAt(7) != '-' || date.charAt(10) != 'T'
+                || date.charAt(13) != ':' || date.charAt(16) != ':' || date.charAt(19) != '.' || date.charAt(23) != 'Z') {
+            return NOT_PARSED;
+        }
+
+        int year = readDigits(date, 0, 4);
+        int month = readDigits(date, 5, 2);
+        int day = readDigits(date, 8, 2);
+        int hour = readDigits(date, 11, 2);
+        int minute = readDigits(date, 14, 2);
+        int second = readDigits(date, 17, 2);
+        int millis = readDigits(date, 20, 3);
+        // Out of range values are left to the formatter, which rejects or resolves them
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0) {
+            return NOT_PARSED;
+        }
+
+        // days_from_civil
+        int marchYear = month <= 2 ? year - 1 : year;
+        int era = marchYear / 400;
+        int yearOfEra = marchYear - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * DAYS_PER_ERA + dayOfEra - EPOCH_SHIFT_DAYS;
+        return days * MS_PER_DAY + ((hour * 60L + minute) * 60 + second) * 1000 + millis;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static void writeDigits(char[] buffer, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * {@return the value of the given decimal digits, or -1 if any of them is not a digit}
+     */
+    private static int readDigits(String s, int offset, int width) {
+        int value = 0;
+        for (int i = offset; i < offset + width; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
     }
 
 }
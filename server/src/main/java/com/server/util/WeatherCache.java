@@ -0,0 +1,125 @@
+package com.server.util;
+
+import com.server.metrics.Counter;
+import com.server.metrics.Metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache of weather lookups for a grid of rounded coordinates, see {@link WeatherService#getWeatherInfoAsync(double, double)}.
+ * <p>
+ * Nearby locations share an entry, and concurrent lookups for the same grid cell share a single fetch.
+ * Entries expire {@code ttlMs} milliseconds after their fetch was started, failed fetches are not cached,
+ * and once the cache is full the least recently used entry is evicted.
+ */
+final class WeatherCache {
+
+    private static final Counter HITS = Metrics.counter("weather_cache_hits_total",
+            "Weather lookups answered from the cache or joined to a call already in progress").labels();
+
+    private final double scale;
+    private final long ttlMs;
+    private final Fetcher fetcher;
+    private final LongSupplier clock;
+    // Access ordered, guarded by itself. Lookups only hold the lock for the map operation, never for a fetch.
+    private final Map<String, CachedWeather> entries;
+
+    /**
+     * @param maxEntries the maximum amount of grid cells kept
+     * @param ttlMs      how long a result is used, in milliseconds
+     * @param precision  the amount of decimals coordinates are rounded to, 2 decimals is roughly a 1 km grid
+     * @param fetcher    fetches the weather for a location which is not cached
+     */
+    WeatherCache(int maxEntries, long ttlMs, int precision, Fetcher fetcher) {
+        this(maxEntries, ttlMs, precision, fetcher, System::currentTimeMillis);
+    }
+
+    WeatherCache(int maxEntries, long ttlMs, int precision, Fetcher fetcher, LongSupplier clock) {
+        this.scale = Math.pow(10, precision);
+        this.ttlMs = ttlMs;
+        this.fetcher = fetcher;
+        this.clock = clock;
+        int capacity = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedWeather> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the weather for a location, fetching it unless the grid cell of the location is cached or already being fetched.
+     *
+     * @param latitude  the latitude of the location
+     * @param longitude the longitude of the location
+     * @return a future completing with the weather information
+     */
+    CompletableFuture<String> get(double latitude, double longitude) {
+        String cell = Math.round(latitude * scale) + ":" + Math.round(longitude * scale);
+        long now = clock.getAsLong();
+        CachedWeather entry;
+        boolean owner = false;
+        synchronized (entries) {
+            entry = entries.get(cell);
+            if (entry == null || entry.expiresAt <= now) {
+                entry = new CachedWeather(new CompletableFuture<>(), now + ttlMs);
+                entries.put(cell, entry);
+                owner = true;
+            }
+        }
+        if (!owner) {
+            HITS.increment();
+            return entry.weather;
+        }
+
+        CachedWeather fetched = entry;
+        CompletableFuture<String> result;
+        try {
+            result = fetcher.fetch(latitude, longitude);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((weather, error) -> {
+            if (error != null) {
+                // Failures are not cached, the next lookup for the cell tries again
+                synchronized (entries) {
+                    entries.remove(cell, fetched);
+                }
+                fetched.weather.completeExceptionally(error);
+            } else {
+                fetched.weather.complete(weather);
+            }
+        });
+        return fetched.weather;
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Fetches the weather for a location.
+     */
+    @FunctionalInterface
+    interface Fetcher {
+        CompletableFuture<String> fetch(double latitude, double longitude);
+    }
+
+    private static class CachedWeather {
+
+        private final CompletableFuture<String> weather;
+        private final long expiresAt;
+
+        private CachedWeather(CompletableFuture<String> weather, long expiresAt) {
+            this.weather = weather;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
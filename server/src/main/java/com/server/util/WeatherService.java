@@ -1,18 +1,49 @@
 package com.server.util;
 
+import com.server.metrics.Counter;
+import com.server.metrics.Histogram;
+import com.server.metrics.Metrics;
 import org.w3c.dom.Document;
-import org.xml.sax.InputSource;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import java.io.StringReader;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 public class WeatherService {
 
+    private static final URI ADDRESS = URI.create(Config.getString("weather.url", "http://localhost:4001/weather"));
+    private static final Duration TIMEOUT = Duration.ofMillis(Config.getLong("weather.timeoutMs", 2000));
+
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .connectTimeout(TIMEOUT)
+            .build();
+    private static final DocumentBuilderFactory FACTORY = DocumentBuilderFactory.newInstance();
+    // DocumentBuilders are not thread safe, so each response is parsed with a builder of its own from the pool
+    private static final InstancePool<DocumentBuilder> BUILDERS = new InstancePool<>(WeatherService::newDocumentBuilder);
+    private static final WeatherCache CACHE = new WeatherCache(
+            Config.getInt("weather.cacheSize", 10000),
+            Config.getLong("weather.cacheTtlMs", 10 * 60 * 1000),
+            // 2 decimals is roughly a 1 km grid
+            Config.getInt("weather.cachePrecision", 2),
+            WeatherService::fetch);
+    private static final CircuitBreaker BREAKER = new CircuitBreaker(
+            Config.getInt("weather.breakerFailures", 5),
+            Config.getLong("weather.breakerOpenMs", 30000));
+
+    private static final Metrics.Family<Counter> REQUESTS = Metrics.counter("weather_requests_total",
+            "Calls to the weather service by result (ok, error, or rejected while the circuit breaker is open)", "result");
+    private static final Metrics.Family<Histogram> DURATION = Metrics.histogram("weather_request_duration_seconds",
+            "Time taken by calls to the weather service, by result", "result");
+
     private WeatherService() {
         // Static utility class
     }
@@ -50,31 +81,101 @@ public class WeatherService {
      * @throws WeatherServiceException If the weather service is not available or the response is invalid
      */
     public static String getWeatherInfo(double latitude, double longitude) throws WeatherServiceException {
+        try {
+            // Bounded by the request timeout, so this never waits longer than weather.timeoutMs
+            return getWeatherInfoAsync(latitude, longitude).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WeatherServiceException("Interrupted while fetching weather information");
+        } catch (ExecutionException e) {
+            throw asWeatherServiceException(e.getCause());
+        }
+    }
+
+    /**
+     * Fetches the weather for a given location without blocking the calling thread.
+     * <p>
+     * Results are cached for a grid of rounded coordinates, so nearby locations share the same weather
+     * and concurrent requests for the same grid cell share a single call to the service.
+     * If the service keeps failing, calls are rejected without contacting it until it has had time to recover.
+     *
+     * @param latitude  The latitude of the location
+     * @param longitude The longitude of the location
+     * @return A future completing with the weather information, or failing with a {@link WeatherServiceException}
+     * @see #getWeatherInfo(double, double)
+     */
+    public static CompletableFuture<String> getWeatherInfoAsync(double latitude, double longitude) {
+        return CACHE.get(latitude, longitude);
+    }
+
+    private static CompletableFuture<String> fetch(double latitude, double longitude) {
+        if (!BREAKER.allowRequest()) {
+            REQUESTS.labels("rejected").increment();
+            return CompletableFuture.failedFuture(new WeatherServiceException("Weather service is unavailable, try again later"));
+        }
+
         final String coordinateXml = "<coordinates><latitude>" + latitude + "</latitude><longitude>" + longitude + "</longitude></coordinates>";
-        final String address = "http://localhost:4001/weather";
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(ADDRESS)
+                .timeout(TIMEOUT)
+                .header("Content-Type", "application/xml")
+                .POST(HttpRequest.BodyPublishers.ofString(coordinateXml))
+                .build();
+
+        long start = System.nanoTime();
+        return CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(WeatherService::parseResponse)
+                .handle((weather, error) -> {
+                    String result = error != null ? "error" : "ok";
+                    DURATION.labels(result).recordSince(start);
+                    REQUESTS.labels(result).increment();
+                    if (error != null) {
+                        BREAKER.recordFailure();
+                        throw new CompletionException(asWeatherServiceException(error));
+                    }
+                    BREAKER.recordSuccess();
+                    return weather;
+                });
+    }
+
+    private static String parseResponse(HttpResponse<byte[]> response) {
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Unexpected response code " + response.statusCode());
+        }
 
+        DocumentBuilder builder = BUILDERS.acquire();
         try {
-            HttpClient client = HttpClient.newHttpClient();
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(address))
-                    .header("Content-Type", "application/xml")
-                    .POST(HttpRequest.BodyPublishers.ofString(coordinateXml))
-                    .build();
-            String response = client.send(request, HttpResponse.BodyHandlers.ofString()).body();
-            Document doc = loadXMLFromString(response);
+            Document doc = builder.parse(new ByteArrayInputStream(response.body()));
             String temperature = doc.getElementsByTagName("temperature").item(0).getTextContent();
             String unit = doc.getElementsByTagName("Unit").item(0).getTextContent();
             return temperature + " " + unit;
         } catch (Exception e) {
-            throw new WeatherServiceException(("Failed to fetch weather information: " + e.getMessage()));
+            throw new IllegalStateException("Invalid response: " + e.getMessage(), e);
+        } finally {
+            builder.reset();
+            BUILDERS.release(builder);
         }
     }
 
-    private static Document loadXMLFromString(String xml) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        InputSource is = new InputSource(new StringReader(xml));
-        return builder.parse(is);
+    private static WeatherServiceException asWeatherServiceException(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof WeatherServiceException) {
+            return (WeatherServiceException) error;
+        }
+        String message = error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+        return new WeatherServiceException("Failed to fetch weather information: " + message);
+    }
+
+    private static DocumentBuilder newDocumentBuilder() {
+        try {
+            synchronized (FACTORY) {
+                return FACTORY.newDocumentBuilder();
+            }
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("Cannot create XML parser", e);
+        }
     }
 
     /**
@@ -0,0 +1,115 @@
+package com.server;
+
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.server.util.ResponseUtil.sendResponse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControlExecutorTest {
+
+    private final CountDownLatch handling = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger handled = new AtomicInteger();
+    private AdmissionControlExecutor executor;
+    private HttpServer server;
+    private URI uri;
+
+    @Before
+    public void setUp() throws Exception {
+        // One thread and room for one waiting request
+        executor = new AdmissionControlExecutor(1, 1);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 16);
+        HttpContext context = server.createContext("/", exchange -> {
+            handled.incrementAndGet();
+            handling.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sendResponse(exchange, 200, "ok");
+        });
+        context.getFilters().add(new AdmissionFilter());
+        server.setExecutor(executor);
+        server.start();
+        uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    @Test
+    public void requestsBeyondThePoolAndQueueAreShed() throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        CompletableFuture<HttpResponse<String>> running = send(client);
+        assertTrue(handling.await(10, TimeUnit.SECONDS));
+        CompletableFuture<HttpResponse<String>> queued = send(client);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (executor.getQueue().isEmpty()) {
+            assertTrue("Request was not queued", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+
+        HttpResponse<String> shed = send(client).get(10, TimeUnit.SECONDS);
+        assertEquals(503, shed.statusCode());
+        assertEquals("1", shed.headers().firstValue("Retry-After").orElse(null));
+        assertEquals("The handler never ran for the shed request", 1, handled.get());
+
+        release.countDown();
+        assertEquals(200, running.get(10, TimeUnit.SECONDS).statusCode());
+        assertEquals(200, queued.get(10, TimeUnit.SECONDS).statusCode());
+        assertEquals(2, handled.get());
+    }
+
+    @Test
+    public void shedRequestsNeverRunOnTheCaller() throws Exception {
+        // Stands in for the server's dispatcher thread
+        Thread dispatcher = Thread.currentThread();
+        AtomicInteger ranOnDispatcher = new AtomicInteger();
+        Runnable slow = () -> {
+            if (Thread.currentThread() == dispatcher) {
+                ranOnDispatcher.incrementAndGet();
+                return;
+            }
+            handling.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        executor.execute(slow);
+        assertTrue(handling.await(10, TimeUnit.SECONDS));
+        executor.execute(slow);
+
+        // More than the shedder has threads for
+        for (int i = 0; i < 10; i++) {
+            executor.execute(slow);
+        }
+        assertEquals(0, ranOnDispatcher.get());
+    }
+
+    private CompletableFuture<HttpResponse<String>> send(HttpClient client) {
+        return client.sendAsync(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+}
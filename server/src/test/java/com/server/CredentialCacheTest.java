@@ -0,0 +1,57 @@
+package com.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CredentialCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1000);
+
+    @Test
+    public void onlyMatchingPasswordIsCached() {
+        CredentialCache cache = new CredentialCache(10, 1000, now::get);
+        cache.put("user", "secret");
+
+        assertTrue(cache.contains("user", "secret"));
+        assertFalse(cache.contains("user", "Secret"));
+        assertFalse(cache.contains("other", "secret"));
+    }
+
+    @Test
+    public void entriesExpire() {
+        CredentialCache cache = new CredentialCache(10, 1000, now::get);
+        cache.put("user", "secret");
+
+        now.addAndGet(999);
+        assertTrue(cache.contains("user", "secret"));
+        now.addAndGet(1);
+        assertFalse(cache.contains("user", "secret"));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        CredentialCache cache = new CredentialCache(2, 1000, now::get);
+        cache.put("first", "a");
+        cache.put("second", "b");
+        assertTrue(cache.contains("first", "a"));
+
+        cache.put("third", "c");
+        assertTrue(cache.contains("first", "a"));
+        assertFalse(cache.contains("second", "b"));
+        assertTrue(cache.contains("third", "c"));
+    }
+
+    @Test
+    public void invalidateRemovesUser() {
+        CredentialCache cache = new CredentialCache(10, 1000, now::get);
+        cache.put("user", "secret");
+        cache.invalidate("user");
+
+        assertFalse(cache.contains("user", "secret"));
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+
+    private final AtomicLong now = new AtomicLong(-TimeUnit.SECONDS.toNanos(5));
+
+    @Test
+    public void burstIsAllowedAndThenTheRate() {
+        RateLimiter limiter = new RateLimiter(10, 3, 16, now::get);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire("user"));
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.tryAcquire("user"));
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(0, limiter.tryAcquire("user"));
+        assertTrue(limiter.tryAcquire("user") > 0);
+
+        // An idle client gets its whole burst back, but no more
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire("user"));
+        }
+        assertTrue(limiter.tryAcquire("user") > 0);
+    }
+
+    @Test
+    public void clientsAreLimitedSeparately() {
+        RateLimiter limiter = new RateLimiter(1, 1, 1024, now::get);
+        assertEquals(0, limiter.tryAcquire("first"));
+        assertTrue(limiter.tryAcquire("first") > 0);
+        assertEquals(0, limiter.tryAcquire("second"));
+    }
+
+}
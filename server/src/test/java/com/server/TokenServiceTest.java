@@ -0,0 +1,41 @@
+package com.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TokenServiceTest {
+
+    private final AtomicLong now = new AtomicLong(1000);
+
+    @Test
+    public void issuedTokenIsVerified() {
+        TokenService tokens = new TokenService("secret", 1000, now::get);
+
+        assertEquals("user.name", tokens.verify(tokens.issue("user.name")));
+    }
+
+    @Test
+    public void expiredTokenIsRejected() {
+        TokenService tokens = new TokenService("secret", 1000, now::get);
+        String token = tokens.issue("user");
+
+        now.addAndGet(1000);
+        assertNull(tokens.verify(token));
+    }
+
+    @Test
+    public void tamperedTokenIsRejected() {
+        TokenService tokens = new TokenService("secret", 1000, now::get);
+        String token = tokens.issue("user");
+        String extended = token.replace("." + (now.get() + 1000) + ".", "." + Long.MAX_VALUE + ".");
+
+        assertNull(tokens.verify(extended));
+        assertNull(new TokenService("other", 1000, now::get).verify(token));
+        assertNull(tokens.verify("not a token"));
+    }
+
+}
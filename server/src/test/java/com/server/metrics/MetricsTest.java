@@ -0,0 +1,43 @@
+package com.server.metrics;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+    @Test
+    public void bucketsCoverEveryValueOnce() {
+        for (long micros = 0; micros < 100_000; micros++) {
+            int index = Histogram.indexOf(micros);
+            assertTrue(Histogram.lowerBound(index) <= micros);
+            assertTrue(Histogram.lowerBound(index + 1) > micros);
+        }
+        assertEquals(125, Histogram.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void metricsAreWrittenInPrometheusFormat() throws IOException {
+        Metrics.counter("test_requests_total", "Requests", "code").labels("200").add(3);
+        Histogram histogram = Metrics.histogram("test_duration_seconds", "Durations", "query").labels("a\"b");
+        histogram.recordNanos(40_000);
+        histogram.recordNanos(2_000_000_000);
+
+        StringWriter out = new StringWriter();
+        Metrics.writePrometheus(out);
+        String text = out.toString();
+        assertTrue(text, text.contains("# TYPE test_requests_total counter\ntest_requests_total{code=\"200\"} 3\n"));
+        assertTrue(text, text.contains("test_duration_seconds_bucket{query=\"a\\\"b\",le=\"0.000032\"} 0\n"));
+        assertTrue(text, text.contains("test_duration_seconds_bucket{query=\"a\\\"b\",le=\"0.000048\"} 1\n"));
+        assertTrue(text, text.contains("test_duration_seconds_bucket{query=\"a\\\"b\",le=\"1.572864\"} 1\n"));
+        assertTrue(text, text.contains("test_duration_seconds_bucket{query=\"a\\\"b\",le=\"2.097152\"} 2\n"));
+        assertTrue(text, text.contains("test_duration_seconds_bucket{query=\"a\\\"b\",le=\"+Inf\"} 2\n"));
+        assertTrue(text, text.contains("test_duration_seconds_sum{query=\"a\\\"b\"} 2.00004\n"));
+        assertTrue(text, text.contains("test_duration_seconds_count{query=\"a\\\"b\"} 2\n"));
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.server.realm;
+
+import com.server.storage.MessageDatabase;
+import com.server.storage.WeatherEnricher;
+import com.sun.net.httpserver.BasicAuthenticator;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class WarningBatchHandlerTest {
+
+    private static final int MAX_BYTES = 1024;
+    private static final int MAX_ITEMS = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private MessageDatabase database;
+    private WeatherEnricher weatherEnricher;
+    private WarningBroadcaster broadcaster;
+    private HttpServer server;
+    private URI uri;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new MessageDatabase(new File(folder.getRoot(), "test.db").getPath(), 1);
+        weatherEnricher = new WeatherEnricher(database);
+        broadcaster = new WarningBroadcaster();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 16);
+        server.createContext("/warning/batch", new WarningBatchHandler(database, weatherEnricher, broadcaster, MAX_BYTES, MAX_ITEMS))
+                .setAuthenticator(new BasicAuthenticator("warning") {
+                    @Override
+                    public boolean checkCredentials(String username, String password) {
+                        return true;
+                    }
+                });
+        server.start();
+        uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/warning/batch");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        broadcaster.close();
+        weatherEnricher.close();
+        database.close();
+    }
+
+    @Test
+    public void arraysAndNdjsonAreBothAccepted() throws Exception {
+        // Leading whitespace does not hide the array
+        JSONObject response = stored(post(" \n\t[" + warning("array", "Moose") + ", " + warning("array", "Deer") + "]"));
+        assertEquals(2, response.getInt("stored"));
+        assertEquals(2, database.getMessages("array").length());
+
+        response = stored(post(warning("ndjson", "Moose") + "\n\n" + warning("ndjson", "Deer") + "\n"));
+        assertEquals(2, response.getInt("stored"));
+        assertEquals(2, database.getMessages("ndjson").length());
+
+        assertEquals(400, post("[" + warning("broken", "Moose") + ",").statusCode());
+        assertEquals(400, post("[" + warning("trailing", "Moose") + "] {}").statusCode());
+    }
+
+    @Test
+    public void resultsMapEachItemToItsIdOrError() throws Exception {
+        JSONObject response = stored(post(warning("first", "Moose") + "\n"
+                + "{\"nickname\": \"unterminated\n"
+                + warning("bear", "Bear") + "\n"
+                + warning("last", "Deer")));
+        assertEquals(2, response.getInt("stored"));
+        JSONArray results = response.getJSONArray("results");
+        assertEquals(4, results.length());
+        for (int i = 0; i < results.length(); i++) {
+            assertEquals(i, results.getJSONObject(i).getInt("index"));
+        }
+        assertEquals(id("first"), results.getJSONObject(0).getInt("id"));
+        assertEquals("Invalid JSON", results.getJSONObject(1).getString("error"));
+        assertEquals("Invalid dangertype", results.getJSONObject(2).getString("error"));
+        assertFalse(results.getJSONObject(2).has("id"));
+        assertEquals(id("last"), results.getJSONObject(3).getInt("id"));
+
+        // An array element which is not an object is rejected on its own too
+        results = stored(post("[42, " + warning("array", "Moose") + "]")).getJSONArray("results");
+        assertEquals("Invalid JSON", results.getJSONObject(0).getString("error"));
+        assertEquals(id("array"), results.getJSONObject(1).getInt("id"));
+    }
+
+    @Test
+    public void batchesOverTheLimitsAreRejected() throws Exception {
+        StringBuilder items = new StringBuilder();
+        for (int i = 0; i <= MAX_ITEMS; i++) {
+            items.append(warning("many", "Moose")).append('\n');
+        }
+        assertEquals(413, post(items.toString()).statusCode());
+        assertEquals(0, database.getMessages("many").length());
+
+        String large = warning("x".repeat(MAX_BYTES), "Moose");
+        assertEquals("Announced by Content-Length", 413, post(large).statusCode());
+        // Without a Content-Length the body is cut off while it is read
+        HttpRequest chunked = request(HttpRequest.BodyPublishers.ofInputStream(
+                () -> new ByteArrayInputStream(large.getBytes(StandardCharsets.UTF_8))));
+        assertEquals(413, client.send(chunked, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private static String warning(String nickname, String dangerType) {
+        return new JSONObject().put("nickname", nickname).put("latitude", 65.0).put("longitude", 25.5)
+                .put("sent", "2024-01-22T13:45:12.345Z").put("dangertype", dangerType).toString();
+    }
+
+    private int id(String nickname) throws Exception {
+        JSONArray messages = database.getMessages(nickname);
+        assertEquals(1, messages.length());
+        return messages.getJSONObject(0).getInt("id");
+    }
+
+    private HttpResponse<String> post(String body) throws Exception {
+        return client.send(request(HttpRequest.BodyPublishers.ofString(body)), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest request(HttpRequest.BodyPublisher body) {
+        String credentials = Base64.getEncoder().encodeToString("gateway:secret".getBytes(StandardCharsets.UTF_8));
+        return HttpRequest.newBuilder(uri).header("Authorization", "Basic " + credentials).POST(body).build();
+    }
+
+    private static JSONObject stored(HttpResponse<String> response) {
+        assertEquals(response.body(), 200, response.statusCode());
+        return new JSONObject(response.body());
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.server.realm;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WarningBroadcasterTest {
+
+    private static final Set<String> DANGER_TYPES = Set.of("Deer", "Moose");
+
+    private WarningBroadcaster broadcaster;
+
+    @Before
+    public void setUp() {
+        broadcaster = new WarningBroadcaster();
+    }
+
+    @After
+    public void tearDown() {
+        broadcaster.close();
+    }
+
+    @Test
+    public void filterMatchesTypeAndArea() {
+        WarningFilter filter = WarningFilter.of(Map.of("dangertype", "Moose", "uplatitude", "66", "downlatitude", "64",
+                "uplongitude", "25", "downlongitude", "26"), DANGER_TYPES);
+        assertTrue(filter.matches("Moose", 65, 25.5));
+        assertFalse(filter.matches("Deer", 65, 25.5));
+        assertFalse(filter.matches("Moose", 67, 25.5));
+        assertFalse(filter.matches("Moose", 65, 24));
+        assertTrue(WarningFilter.ALL.matches("Deer", -90, 180));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void filterRejectsIncompleteArea() {
+        WarningFilter.of(Map.of("uplatitude", "66"), DANGER_TYPES);
+    }
+
+    @Test
+    public void matchingWarningsArePushed() throws Exception {
+        CountDownLatch written = new CountDownLatch(1);
+        ByteArrayOutputStream moose = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                written.countDown();
+            }
+        };
+        ByteArrayOutputStream deer = new ByteArrayOutputStream();
+        assertTrue(broadcaster.subscribe(moose, () -> { }, WarningFilter.of(Map.of("dangertype", "Moose"), DANGER_TYPES)));
+        assertTrue(broadcaster.subscribe(deer, () -> { }, WarningFilter.of(Map.of("dangertype", "Deer"), DANGER_TYPES)));
+
+        broadcaster.publish("warning", new JSONObject().put("id", 1).put("dangertype", "Moose").put("latitude", 65).put("longitude", 25));
+
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        String event = moose.toString(StandardCharsets.UTF_8);
+        assertTrue(event, event.startsWith("event: warning\ndata: {"));
+        assertTrue(event, event.endsWith("}\n\n"));
+        assertEquals(0, deer.size());
+    }
+
+    @Test
+    public void failedWriteRemovesSubscriber() throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+        ByteArrayOutputStream broken = new ByteArrayOutputStream() {
+            @Override
+            public void write(byte[] b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        broadcaster.subscribe(broken, closed::countDown, WarningFilter.ALL);
+        assertEquals(1, broadcaster.getSubscriberCount());
+
+        broadcaster.publish("warning", new JSONObject().put("id", 1).put("dangertype", "Deer").put("latitude", 65).put("longitude", 25));
+
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, broadcaster.getSubscriberCount());
+    }
+
+    @Test
+    public void stalledSubscriberDoesNotBlockPublish() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        StalledStream stalled = new StalledStream(writing);
+        broadcaster.subscribe(stalled, () -> stalled.close(closed), WarningFilter.ALL);
+        publish();
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        // Enough to overflow the queue of the stalled subscriber, which is then disconnected
+        ExecutorService publisher = Executors.newSingleThreadExecutor();
+        try {
+            publisher.submit(() -> {
+                for (int i = 0; i < 100; i++) {
+                    publish();
+                }
+            }).get(1, TimeUnit.SECONDS);
+        } finally {
+            publisher.shutdownNow();
+        }
+        assertEquals(0, broadcaster.getSubscriberCount());
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void stalledWritesAreAborted() throws Exception {
+        broadcaster.close();
+        broadcaster = new WarningBroadcaster(200);
+        CountDownLatch writing = new CountDownLatch(2);
+        CountDownLatch closed = new CountDownLatch(2);
+        // As many stalled subscribers as there are writer threads
+        for (int i = 0; i < 2; i++) {
+            StalledStream stalled = new StalledStream(writing);
+            broadcaster.subscribe(stalled, () -> stalled.close(closed), WarningFilter.ALL);
+        }
+        publish();
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch written = new CountDownLatch(1);
+        ByteArrayOutputStream healthy = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                written.countDown();
+            }
+        };
+        broadcaster.subscribe(healthy, () -> { }, WarningFilter.ALL);
+        publish();
+
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertTrue("A writer thread was freed for the healthy subscriber", written.await(5, TimeUnit.SECONDS));
+        assertEquals(1, broadcaster.getSubscriberCount());
+    }
+
+    private void publish() {
+        broadcaster.publish("warning", new JSONObject().put("id", 1).put("dangertype", "Deer").put("latitude", 65).put("longitude", 25));
+    }
+
+    /**
+     * A client which never reads, so writes block until they are interrupted, like writes to a socket channel.
+     * Closing the connection blocks as well, since it flushes the end of the response, unless a write was aborted,
+     * which closes the socket.
+     */
+    private static class StalledStream extends OutputStream {
+
+        private final CountDownLatch writing;
+        private final CountDownLatch aborted = new CountDownLatch(1);
+
+        private StalledStream(CountDownLatch writing) {
+            this.writing = writing;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            writing.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                aborted.countDown();
+                throw new InterruptedIOException("Write aborted");
+            }
+        }
+
+        private void close(CountDownLatch closed) throws IOException {
+            try {
+                aborted.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Close aborted");
+            }
+            closed.countDown();
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.server.realm;
+
+import com.server.storage.MessageDatabase;
+import com.server.storage.WeatherEnricher;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class WarningHandlerTest {
+
+    // One more than query.defaultLimit
+    private static final int MESSAGES = 1001;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private MessageDatabase database;
+    private WeatherEnricher weatherEnricher;
+    private WarningBroadcaster broadcaster;
+    private HttpServer server;
+    private URI uri;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new MessageDatabase(new File(folder.getRoot(), "test.db").getPath(), 1);
+        weatherEnricher = new WeatherEnricher(database);
+        broadcaster = new WarningBroadcaster();
+        List<MessageDatabase.NewMessage> messages = new ArrayList<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            messages.add(new MessageDatabase.NewMessage("nick", 65.0, 25.5, 1000 + i, "Moose", null, null, null));
+        }
+        database.submitMessages(messages, "user");
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 16);
+        server.createContext("/warning", new WarningHandler(database, weatherEnricher, broadcaster));
+        server.start();
+        uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/warning");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        broadcaster.close();
+        weatherEnricher.close();
+        database.close();
+    }
+
+    @Test
+    public void requestsWithoutPagingParametersAreNotTruncated() throws Exception {
+        assertEquals(MESSAGES, get("").length());
+        assertEquals(MESSAGES, post("{\"query\":\"user\",\"nickname\":\"nick\"}").length());
+        assertEquals(MESSAGES, post("{\"query\":\"time\",\"timestart\":\"1970-01-01T00:00:00.000Z\","
+                + "\"timeend\":\"1970-01-01T00:00:05.000Z\"}").length());
+        assertEquals(MESSAGES, post("{\"query\":\"location\",\"uplatitude\":66,\"downlatitude\":64,"
+                + "\"uplongitude\":25,\"downlongitude\":26}").length());
+    }
+
+    @Test
+    public void pagingParametersLimitThePage() throws Exception {
+        JSONArray page = get("?limit=10&after=5");
+        assertEquals(10, page.length());
+        assertEquals(6, page.getJSONObject(0).getInt("id"));
+        // An after id alone pages with query.defaultLimit
+        assertEquals(1000, get("?after=0").length());
+        assertEquals(1, get("?after=1000").length());
+        assertEquals(3, post("{\"query\":\"user\",\"nickname\":\"nick\",\"limit\":3}").length());
+        // The sequence number of a sync is its after id
+        assertEquals(1000, post("{\"query\":\"changes\",\"since\":0}").length());
+        assertEquals(MESSAGES, post("{\"query\":\"changes\"}").length());
+    }
+
+    private JSONArray get(String query) throws Exception {
+        return body(client.send(HttpRequest.newBuilder(URI.create(uri + query)).build(), HttpResponse.BodyHandlers.ofString()));
+    }
+
+    private JSONArray post(String json) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri).header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json)).build();
+        return body(client.send(request, HttpResponse.BodyHandlers.ofString()));
+    }
+
+    private static JSONArray body(HttpResponse<String> response) {
+        assertEquals(response.body(), 200, response.statusCode());
+        return new JSONArray(response.body());
+    }
+
+}
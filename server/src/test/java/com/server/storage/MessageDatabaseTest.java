@@ -0,0 +1,309 @@
+package com.server.storage;
+
+import com.server.util.JsonStreamWriter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessageDatabaseTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MessageDatabase database;
+
+    @Before
+    public void setUp() {
+        // Without the recent message cache, so that every query goes to the database
+        database = new MessageDatabase(path(), 1, 0, 0);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    @Test
+    public void pagesCoverAllMessagesOnce() throws SQLException {
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            int id = submit(i % 2 == 0 ? "even" : "odd", 65.0 + i * 0.001, 1000 + i);
+            if (i % 2 == 0) {
+                expected.add(id);
+            }
+        }
+
+        assertEquals(expected, collect(page -> database.getMessages("even", page)));
+        assertEquals(25, collect(database::getMessages).size());
+        assertEquals(25, collect(page -> database.getMessages(0, 5000, page)).size());
+        assertEquals(25, collect(page -> database.getMessages(66, 64, 25, 26, page)).size());
+    }
+
+    @Test
+    public void limitOfMinusOneReturnsEverything() throws SQLException {
+        for (int i = 0; i < 5; i++) {
+            submit("nick", 65.0, i);
+        }
+        assertEquals(5, database.getMessages().length());
+        assertEquals(3, database.getMessages(new Page(2, -1)).length());
+    }
+
+    @Test
+    public void streamsAreWrittenWithoutHoldingAReader() throws Exception {
+        List<MessageDatabase.NewMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            messages.add(new MessageDatabase.NewMessage("nick", 65.0, 25.5, i, "Moose", null, null, null));
+        }
+        database.submitMessages(messages, "user");
+
+        // Read in chunks by id
+        JSONArray streamed = streamToSlowClient(opener -> database.streamMessages(Page.ALL, opener));
+        assertEquals(600, streamed.length());
+        assertEquals(600, streamed.getJSONObject(599).getInt("id"));
+        // Read from a single cursor, since the sent index does not follow the ids
+        assertEquals(streamed.toString(), streamToSlowClient(opener -> database.streamMessages(0, 1000, Page.ALL, opener)).toString());
+        assertEquals(600, streamToSlowClient(opener -> database.streamMessages(66, 64, 25, 26, Page.ALL, opener)).length());
+
+        // Limited pages continue across chunks
+        JSONArray page = new JSONArray(streamed(opener -> database.streamMessages(new Page(100, 300), opener)));
+        assertEquals(300, page.length());
+        assertEquals(101, page.getJSONObject(0).getInt("id"));
+        assertEquals(400, page.getJSONObject(299).getInt("id"));
+        page = new JSONArray(streamed(opener -> database.streamMessages(0, 1000, new Page(100, 300), opener)));
+        assertEquals(300, page.length());
+        assertEquals(400, page.getJSONObject(299).getInt("id"));
+    }
+
+    @Test
+    public void batchesAreStoredTogetherOrNotAtAll() throws SQLException {
+        List<MessageDatabase.NewMessage> batch = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            batch.add(new MessageDatabase.NewMessage("gateway", 65.0, 25.5, 1000 + i, "Moose", null, null, null));
+        }
+        int[] ids = database.submitMessages(batch, "user");
+        assertEquals(3, ids.length);
+        assertEquals(ids[2], database.getMessages("gateway").getJSONObject(2).getInt("id"));
+
+        // The nickname is NOT NULL, so the whole batch is rolled back
+        batch.add(new MessageDatabase.NewMessage(null, 65.0, 25.5, 2000, "Moose", null, null, null));
+        try {
+            database.submitMessages(batch, "user");
+            fail();
+        } catch (SQLException expected) {
+            assertEquals(3, database.getMessages().length());
+        }
+    }
+
+    @Test
+    public void exportsStreamEveryMessage() throws SQLException, IOException {
+        submit("late", 65.0, 3000);
+        database.submitMessage("quote \"me\", please", 65.1, 25.5, 1000, "Deer", "040", null, null, "dummy");
+
+        StringWriter ndjson = new StringWriter();
+        assertEquals(2, database.exportMessages(ExportFormat.NDJSON, () -> ndjson));
+        String[] lines = ndjson.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("late", new JSONObject(lines[0]).getString("nickname"));
+
+        StringWriter csv = new StringWriter();
+        assertEquals(1, database.exportMessages(0, 2000, ExportFormat.CSV, () -> csv));
+        assertEquals("id,nickname,latitude,longitude,sent,dangertype,areacode,phonenumber,updatereason,modified,weather\r\n"
+                + "2,\"quote \"\"me\"\", please\",65.1,25.5,1970-01-01T00:00:01.000Z,Deer,040,,,,\r\n", csv.toString());
+    }
+
+    @Test
+    public void changesFollowTheLatestChangeOfEachMessage() throws SQLException {
+        int first = submit("nick", 65.0, 1000);
+        int second = submit("nick", 65.0, 2000);
+        JSONArray changes = database.getChanges(Page.ALL);
+        assertEquals(2, changes.length());
+        long since = changes.getJSONObject(1).getLong("seq");
+
+        assertEquals(0, database.getChanges(new Page(since, 10)).length());
+
+        database.updateMessage(first, "nick", 65.0, 25.5, 1000, "Deer", null, null, null, "Wrong animal", 5000);
+        assertTrue(database.updateWeather(second, 65.0, 25.5, "-5"));
+        changes = database.getChanges(new Page(since, 10));
+        assertEquals(2, changes.length());
+        assertEquals(first, changes.getJSONObject(0).getInt("id"));
+        assertEquals("Deer", changes.getJSONObject(0).getString("dangertype"));
+        assertEquals(second, changes.getJSONObject(1).getInt("id"));
+        assertTrue(changes.getJSONObject(1).getLong("seq") > changes.getJSONObject(0).getLong("seq"));
+        assertEquals("A message changed after the sync point is returned once", 2, database.getChanges(Page.ALL).length());
+    }
+
+    @Test
+    public void changesSinceATimeGoByTheServerClock() throws Exception {
+        long start = System.currentTimeMillis();
+        // Sent long ago, as by a client whose clock is wrong or which was offline
+        int backDated = submit("nick", 65.0, 1000);
+        int other = submit("nick", 65.0, 2000);
+        JSONArray changes = database.getChanges(start, Page.ALL);
+        assertEquals(2, changes.length());
+        assertEquals(backDated, changes.getJSONObject(0).getInt("id"));
+
+        Thread.sleep(5);
+        long sync = System.currentTimeMillis();
+        assertEquals(0, database.getChanges(sync, Page.ALL).length());
+        // Neither the weather nor an update with an old modified time touch the client's times
+        assertTrue(database.updateWeather(backDated, 65.0, 25.5, "-5"));
+        database.updateMessage(other, "nick", 65.0, 25.5, 2000, "Deer", null, null, null, "Wrong animal", 3000);
+        changes = database.getChanges(sync, Page.ALL);
+        assertEquals(2, changes.length());
+        assertEquals(backDated, changes.getJSONObject(0).getInt("id"));
+        assertEquals("-5", changes.getJSONObject(0).getString("weather"));
+        assertEquals(other, changes.getJSONObject(1).getInt("id"));
+        assertEquals(changes.toString(), new JSONArray(streamed(opener -> database.streamChanges(sync, Page.ALL, opener))).toString());
+    }
+
+    @Test
+    public void recentMessagesAreAnsweredLikeTheDatabase() throws Exception {
+        long now = System.currentTimeMillis();
+        MessageDatabase cached = new MessageDatabase(path(), 1, 60 * 60 * 1000, 100);
+        try {
+            cached.submitMessage("old", 65.0, 25.5, now - 2 * 60 * 60 * 1000, "Moose", null, null, null, "dummy");
+            int first = cached.submitMessage("first", 65.0, 25.5, now - 20 * 60 * 1000, "Moose", "358", "0401234567", null, "dummy");
+            int second = cached.submitMessage("second", 65.5, 26.5, now - 10 * 60 * 1000, "Deer", null, null, null, "dummy");
+            cached.submitMessage("moved", 65.0, 25.5, now - 5 * 60 * 1000, "Moose", null, null, null, "dummy");
+            cached.updateMessage(first, "first", 64.5, 25.0, now - 15 * 60 * 1000, "Reindeer", null, null, null, "Wrong animal", now);
+            cached.updateMessage(first + 2, "moved", 65.0, 25.5, now - 3 * 60 * 60 * 1000, "Moose", null, null, null, "Wrong time", now);
+            assertTrue(cached.updateWeather(second, 65.5, 26.5, "-5 Celsius"));
+
+            long start = now - 30 * 60 * 1000;
+            String expected = streamed(opener -> database.streamMessages(start, now, Page.ALL, opener));
+            assertEquals(expected, streamed(opener -> cached.streamMessages(start, now, Page.ALL, opener)));
+            assertTrue(expected, expected.contains("\"updatereason\":\"Wrong animal\"") && expected.contains("-5 Celsius"));
+            assertEquals(2, cached.getMessages(start, now).length());
+            assertEquals(1, cached.getMessages(start, now, new Page(first, 10)).length());
+
+            expected = streamed(opener -> database.streamMessages(66, 65, 26, 27, start, now, Page.ALL, opener));
+            assertEquals(expected, streamed(opener -> cached.streamMessages(66, 65, 26, 27, start, now, Page.ALL, opener)));
+            assertEquals(second, cached.getMessages(66, 65, 26, 27, start, now, Page.ALL).getJSONObject(0).getInt("id"));
+
+            // Before the window, so answered by the database
+            assertEquals(4, cached.getMessages(now - 4 * 60 * 60 * 1000, now).length());
+        } finally {
+            cached.close();
+        }
+    }
+
+    /**
+     * Streams a query to a client which does not read until the only reader connection has been used by another query.
+     */
+    private JSONArray streamToSlowClient(StreamedQuery query) throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Writer slowClient = new StringWriter() {
+            @Override
+            public void write(int c) {
+                await();
+                super.write(c);
+            }
+
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+                await();
+                super.write(cbuf, off, len);
+            }
+
+            @Override
+            public void write(String str, int off, int len) {
+                await();
+                super.write(str, off, len);
+            }
+
+            private void await() {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> stream = executor.submit(() -> {
+                query.stream(() -> new JsonStreamWriter(slowClient));
+                return null;
+            });
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+            // The only reader connection is free while the stream waits for its client
+            assertEquals(1, database.getMessages(new Page(0, 1)).length());
+
+            release.countDown();
+            stream.get(10, TimeUnit.SECONDS);
+            return new JSONArray(slowClient.toString());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private String path() {
+        return new File(folder.getRoot(), "test.db").getPath();
+    }
+
+    private static String streamed(StreamedQuery query) throws SQLException, IOException {
+        StringWriter out = new StringWriter();
+        query.stream(() -> new JsonStreamWriter(out));
+        return out.toString();
+    }
+
+    private int submit(String nickname, double latitude, long sent) throws SQLException {
+        return database.submitMessage(nickname, latitude, 25.5, sent, "Moose", null, null, null, "dummy");
+    }
+
+    /**
+     * Reads all pages of a query with a page size of 4, and returns the ids in the order they were returned.
+     */
+    private static List<Integer> collect(PagedQuery query) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        long after = 0;
+        while (true) {
+            JSONArray page = query.get(new Page(after, 4));
+            for (int i = 0; i < page.length(); i++) {
+                int id = page.getJSONObject(i).getInt("id");
+                assertTrue("Ids are ascending", id > after);
+                ids.add(id);
+                after = id;
+            }
+            if (page.length() < 4) {
+                return ids;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface StreamedQuery {
+        void stream(MessageDatabase.JsonOpener opener) throws SQLException, IOException;
+    }
+
+    @FunctionalInterface
+    private interface PagedQuery {
+        JSONArray get(Page page) throws SQLException;
+    }
+
+}
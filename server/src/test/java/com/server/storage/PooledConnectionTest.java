@@ -0,0 +1,58 @@
+package com.server.storage;
+
+import org.junit.Test;
+
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PooledConnectionTest {
+
+    @Test
+    public void statementsAreReused() throws SQLException {
+        PooledConnection connection = open(4);
+        PreparedStatement first = connection.prepare("SELECT ?");
+        first.setInt(1, 42);
+        try (ResultSet rs = first.executeQuery()) {
+            assertTrue(rs.next());
+            assertEquals(42, rs.getInt(1));
+        }
+
+        PreparedStatement second = connection.prepare("SELECT ?");
+        assertSame(first, second);
+        try (ResultSet rs = second.executeQuery()) {
+            assertTrue(rs.next());
+            assertEquals("Parameters of the previous use are cleared", null, rs.getObject(1));
+        }
+        connection.close();
+    }
+
+    @Test
+    public void leastRecentlyUsedStatementIsClosed() throws SQLException {
+        PooledConnection connection = open(2);
+        PreparedStatement one = connection.prepare("SELECT 1");
+        PreparedStatement two = connection.prepare("SELECT 2");
+        connection.prepare("SELECT 1");
+        connection.prepare("SELECT 3");
+
+        assertTrue(two.isClosed());
+        assertFalse(one.isClosed());
+        assertNotSame(two, connection.prepare("SELECT 2"));
+
+        connection.close();
+        assertTrue(one.isClosed());
+        assertTrue(connection.connection().isClosed());
+    }
+
+    private static PooledConnection open(int maxStatements) throws SQLException {
+        return new PooledConnection(DriverManager.getConnection("jdbc:sqlite::memory:"), maxStatements);
+    }
+
+}
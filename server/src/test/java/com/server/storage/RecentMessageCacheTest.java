@@ -0,0 +1,60 @@
+package com.server.storage;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+
+public class RecentMessageCacheTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    public void slidingWindowEvictsOldMessages() throws SQLException {
+        RecentMessageCache cache = emptyCache(1000, 10);
+        cache.put(message(1, NOW - 500), NOW);
+        cache.put(message(2, NOW - 5000), NOW);
+        assertEquals(NOW - 1000, cache.coveredFrom());
+        assertEquals("Messages sent before the window are not kept", 1, cache.size());
+
+        cache.put(message(3, NOW + 600), NOW + 600);
+        assertEquals(NOW - 400, cache.coveredFrom());
+        assertEquals("The window slid past the first message", 3, cache.find(Page.ALL, message -> true).get(0).id);
+        cache.put(message(4, NOW + 600), NOW + 1000);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void fullCacheCoversAShorterPeriod() throws SQLException {
+        RecentMessageCache cache = emptyCache(1000, 3);
+        for (int id = 1; id <= 3; id++) {
+            cache.put(message(id, NOW - 100 * id), NOW);
+        }
+        cache.put(message(4, NOW), NOW);
+        assertEquals(3, cache.size());
+        assertEquals("The first sent message was dropped and the period shrunk past it", NOW - 299, cache.coveredFrom());
+
+        // Updating a cached message does not need room
+        cache.put(message(4, NOW - 1), NOW);
+        assertEquals(NOW - 299, cache.coveredFrom());
+        assertEquals(2, cache.find(new Page(0, 2), message -> true).size());
+    }
+
+    private static RecentMessageCache emptyCache(long windowMs, int maxMessages) throws SQLException {
+        RecentMessageCache cache = new RecentMessageCache(windowMs, maxMessages);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = connection.createStatement()) {
+            cache.load(statement.executeQuery("SELECT 1 WHERE 0"), NOW - windowMs);
+        }
+        return cache;
+    }
+
+    private static RecentMessageCache.CachedMessage message(int id, long sent) {
+        return new RecentMessageCache.CachedMessage(id, "nick", 65.0, 25.5, sent, "Moose", null, null, null, null, 0);
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.server.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SchemaMigrationsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void newDatabaseIsMigratedToLatestVersion() throws Exception {
+        String path = openAndClose(new File(folder.getRoot(), "new.db"));
+
+        try (Connection connection = connect(path)) {
+            assertEquals(SchemaMigrations.latestVersion(), SchemaMigrations.currentVersion(connection));
+        }
+    }
+
+    @Test
+    public void unversionedDatabaseIsMigrated() throws Exception {
+        File file = new File(folder.getRoot(), "legacy.db");
+        try (Connection connection = connect(file.getPath()); Statement statement = connection.createStatement()) {
+            // The schema as created before migrations existed
+            statement.executeUpdate(DBQueries.CREATE_TABLE_USERS);
+            statement.executeUpdate(DBQueries.CREATE_TABLE_MESSAGES);
+            statement.executeUpdate("INSERT INTO messages (nickname, latitude, longitude, sent, dangertype, sender) "
+                    + "VALUES ('nick', 65.0, 25.5, 0, 'Moose', 'dummy')");
+        }
+
+        openAndClose(file);
+
+        try (Connection connection = connect(file.getPath()); Statement statement = connection.createStatement()) {
+            assertEquals(SchemaMigrations.latestVersion(), SchemaMigrations.currentVersion(connection));
+            ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM messages_rtree");
+            assertTrue(rs.next());
+            assertEquals("Existing messages are added to the spatial index", 1, rs.getInt(1));
+            rs = statement.executeQuery("SELECT seq FROM messages");
+            assertTrue(rs.next());
+            assertEquals("Existing messages get a sequence number", 1, rs.getLong(1));
+            rs = statement.executeQuery("SELECT changed FROM messages");
+            assertTrue(rs.next());
+            assertEquals("Existing messages get their sent time as their change time", 0, rs.getLong(1));
+            assertFalse(rs.wasNull());
+        }
+    }
+
+    @Test
+    public void queriesUseIndexes() throws Exception {
+        String path = openAndClose(new File(folder.getRoot(), "plans.db"));
+
+        try (Connection connection = connect(path)) {
+            assertPlanContains(connection, DBQueries.GET_ALL_MESSAGES, "USING INTEGER PRIMARY KEY (rowid>?)");
+            assertPlanContains(connection, DBQueries.GET_MESSAGES_BY_TIME, "USING INDEX messages_sent");
+            assertPlanContains(connection, DBQueries.GET_MESSAGES_BY_NICKNAME, "USING INDEX messages_nickname (nickname=? AND rowid>?)");
+            assertPlanContains(connection, DBQueries.GET_MESSAGES_BY_AREA, "VIRTUAL TABLE INDEX");
+            assertPlanContains(connection, DBQueries.GET_MESSAGES_BY_AREA_AND_TIME, "VIRTUAL TABLE INDEX");
+            assertPlanContains(connection, DBQueries.GET_RECENT_MESSAGES, "USING INDEX messages_sent (sent>?)");
+            assertPlanContains(connection, DBQueries.IS_SENDER, "USING INTEGER PRIMARY KEY");
+            assertPlanContains(connection, DBQueries.GET_CHANGES, "USING INDEX messages_seq (seq>?)");
+            assertPlanContains(connection, DBQueries.GET_CHANGES_BY_TIME, "USING INDEX messages_changed (changed>?)");
+            // Exports stream their rows, so they must never sort
+            assertPlanContains(connection, DBQueries.EXPORT_MESSAGES, "SCAN messages");
+            assertPlanContains(connection, DBQueries.EXPORT_MESSAGES_BY_TIME, "USING INDEX messages_sent (sent>? AND sent<?)");
+            assertPlanLacks(connection, DBQueries.EXPORT_MESSAGES, "TEMP B-TREE");
+            assertPlanLacks(connection, DBQueries.EXPORT_MESSAGES_BY_TIME, "TEMP B-TREE");
+        }
+    }
+
+    private static String openAndClose(File file) {
+        new MessageDatabase(file.getPath(), 1).close();
+        return file.getPath();
+    }
+
+    private static Connection connect(String path) throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + path);
+    }
+
+    private static void assertPlanContains(Connection connection, String query, String expected) throws SQLException {
+        String plan = plan(connection, query);
+        assertTrue("Expected plan of '" + query + "' to contain '" + expected + "', was:\n" + plan, plan.contains(expected));
+    }
+
+    private static void assertPlanLacks(Connection connection, String query, String unexpected) throws SQLException {
+        String plan = plan(connection, query);
+        assertFalse("Expected plan of '" + query + "' not to contain '" + unexpected + "', was:\n" + plan, plan.contains(unexpected));
+    }
+
+    private static String plan(Connection connection, String query) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (PreparedStatement ps = connection.prepareStatement("EXPLAIN QUERY PLAN " + query)) {
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                plan.append(rs.getString("detail")).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+
+}
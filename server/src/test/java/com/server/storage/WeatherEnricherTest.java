@@ -0,0 +1,119 @@
+package com.server.storage;
+
+import com.server.util.WeatherService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WeatherEnricherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MessageDatabase database;
+    private WeatherEnricher enricher;
+
+    @Before
+    public void setUp() {
+        database = new MessageDatabase(new File(folder.getRoot(), "test.db").getPath(), 1, 0, 0);
+    }
+
+    @After
+    public void tearDown() {
+        if (enricher != null) {
+            enricher.close();
+        }
+        database.close();
+    }
+
+    @Test
+    public void failedFetchesAreRetried() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        enricher = new WeatherEnricher(database, (latitude, longitude) -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new WeatherService.WeatherServiceException("unavailable");
+            }
+            return "-5 Celsius";
+        }, 1, 10, 5, 1, 4);
+        int id = submit();
+
+        assertTrue(enricher.enqueue(id, 65.0, 25.5));
+        await(() -> enricher.getCompletedCount() == 1);
+        assertEquals(3, calls.get());
+        assertEquals(0, enricher.getQueueDepth());
+        assertEquals("-5 Celsius", database.getMessages().getJSONObject(0).getString("weather"));
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        enricher = new WeatherEnricher(database, (latitude, longitude) -> {
+            calls.incrementAndGet();
+            throw new WeatherService.WeatherServiceException("unavailable");
+        }, 1, 10, 3, 1, 4);
+
+        assertTrue(enricher.enqueue(submit(), 65.0, 25.5));
+        await(() -> enricher.getFailedCount() == 1);
+        assertEquals(3, calls.get());
+        assertEquals(0, enricher.getQueueDepth());
+        assertFalse(database.getMessages().getJSONObject(0).has("weather"));
+    }
+
+    @Test
+    public void fullQueueRejectsMessages() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        enricher = new WeatherEnricher(database, (latitude, longitude) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "1 Celsius";
+        }, 1, 2, 1, 1, 1);
+
+        assertTrue(enricher.enqueue(submit(), 65.0, 25.5));
+        assertTrue(enricher.enqueue(submit(), 65.0, 25.5));
+        assertFalse(enricher.enqueue(submit(), 65.0, 25.5));
+        assertEquals(2, enricher.getQueueDepth());
+        assertEquals(1, enricher.getFailedCount());
+
+        release.countDown();
+        await(() -> enricher.getCompletedCount() == 2);
+        assertEquals(0, enricher.getQueueDepth());
+    }
+
+    @Test
+    public void closedEnricherRejectsMessages() throws Exception {
+        enricher = new WeatherEnricher(database, (latitude, longitude) -> "1 Celsius", 1, 10, 1, 1, 1);
+        enricher.close();
+
+        assertFalse(enricher.enqueue(submit(), 65.0, 25.5));
+        assertEquals(0, enricher.getQueueDepth());
+        assertEquals(1, enricher.getFailedCount());
+    }
+
+    private int submit() throws SQLException {
+        return database.submitMessage("nick", 65.0, 25.5, 1000, "Moose", null, null, null, "dummy");
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package com.server.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteBatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ConnectionPool pool;
+    private WriteBatcher batcher;
+    private final ExecutorService writers = Executors.newCachedThreadPool();
+
+    @Before
+    public void setUp() throws SQLException {
+        pool = new ConnectionPool(new File(folder.getRoot(), "test.db").getPath(), 1, 1000, 1000, 4);
+        pool.write(pooled -> {
+            try (Statement statement = pooled.connection().createStatement()) {
+                statement.execute("CREATE TABLE items (id INTEGER PRIMARY KEY, name TEXT NOT NULL)");
+            }
+            return null;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        writers.shutdownNow();
+        if (batcher != null) {
+            batcher.close();
+        }
+        pool.close();
+    }
+
+    @Test
+    public void failingWriteOnlyRollsBackItself() throws Exception {
+        // A batch is only committed once all three writes are queued, or after a minute
+        batcher = new WriteBatcher(pool, 3, 60_000);
+        Future<Integer> first = writers.submit(() -> batcher.submit(insert("first")));
+        Future<Integer> failing = writers.submit(() -> batcher.submit(pooled -> {
+            insert("failing").apply(pooled);
+            return insert(null).apply(pooled);
+        }));
+        Future<Integer> last = writers.submit(() -> batcher.submit(insert("last")));
+
+        first.get(10, TimeUnit.SECONDS);
+        last.get(10, TimeUnit.SECONDS);
+        try {
+            failing.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        List<String> names = names();
+        Collections.sort(names);
+        assertEquals(List.of("first", "last"), names);
+    }
+
+    @Test
+    public void failedSavepointRollbackFailsTheBatch() throws Exception {
+        batcher = new WriteBatcher(pool, 2, 60_000);
+        Future<Integer> first = writers.submit(() -> batcher.submit(insert("first")));
+        Future<Integer> failing = writers.submit(() -> batcher.submit(pooled -> {
+            // Like SQLite does by itself after SQLITE_FULL
+            pooled.connection().rollback();
+            throw new SQLException("disk full");
+        }));
+
+        for (Future<Integer> write : List.of(first, failing)) {
+            try {
+                write.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertEquals("disk full", e.getCause().getMessage());
+                assertTrue(e.getCause().getSuppressed().length > 0);
+            }
+        }
+        assertEquals(List.of(), names());
+    }
+
+    @Test
+    public void committedCallbacksRunInOrderBeforeResults() throws Exception {
+        batcher = new WriteBatcher(pool, 4, 5);
+        List<Integer> committed = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            String name = "item" + i;
+            results.add(writers.submit(() -> {
+                int id = batcher.submit(insert(name), committed::add);
+                assertTrue("Callback ran before the result was returned", committed.contains(id));
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(40, committed.size());
+        for (int i = 1; i < committed.size(); i++) {
+            assertTrue("Callbacks follow the commit order", committed.get(i) > committed.get(i - 1));
+        }
+    }
+
+    @Test
+    public void closeCommitsQueuedWritesAndRejectsNewOnes() throws Exception {
+        batcher = new WriteBatcher(pool, 1, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Integer> blocking = writers.submit(() -> batcher.submit(pooled -> {
+            started.countDown();
+            await(release);
+            return insert("blocking").apply(pooled);
+        }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Thread[] queuedThread = new Thread[1];
+        Future<Integer> queued = writers.submit(() -> {
+            queuedThread[0] = Thread.currentThread();
+            return batcher.submit(insert("queued"));
+        });
+        // Waiting for its result, so it has been queued behind the blocking write
+        awaitWaiting(queuedThread);
+
+        Future<?> closing = writers.submit(batcher::close);
+        Thread.sleep(50);
+        release.countDown();
+        closing.get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, (int) blocking.get());
+        assertEquals(2, (int) queued.get());
+        try {
+            batcher.submit(insert("late"));
+            fail();
+        } catch (SQLException expected) {
+            assertEquals(List.of("blocking", "queued"), names());
+        }
+    }
+
+    private static ConnectionPool.SQLFunction<Integer> insert(String name) {
+        return pooled -> {
+            PreparedStatement statement = pooled.prepare("INSERT INTO items (name) VALUES (?)");
+            statement.setString(1, name);
+            statement.executeUpdate();
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                keys.next();
+                return keys.getInt(1);
+            }
+        };
+    }
+
+    private List<String> names() throws SQLException {
+        return pool.read(pooled -> {
+            List<String> names = new ArrayList<>();
+            try (ResultSet rs = pooled.prepare("SELECT name FROM items ORDER BY id").executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+            return names;
+        });
+    }
+
+    private static void await(CountDownLatch latch) throws SQLException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private static void awaitWaiting(Thread[] thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (thread[0] == null || thread[0].getState() != Thread.State.WAITING) {
+            assertTrue("Write was not queued", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+}
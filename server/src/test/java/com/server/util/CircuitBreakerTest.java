@@ -0,0 +1,62 @@
+package com.server.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(1000);
+    private final CircuitBreaker breaker = new CircuitBreaker(3, 500, now::get);
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        fail(2);
+        breaker.recordSuccess();
+        fail(2);
+        assertFalse("Failures are counted from the last success", breaker.isOpen());
+
+        fail(1);
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+        now.addAndGet(499);
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void halfOpenLetsOneTrialThrough() {
+        fail(3);
+        now.addAndGet(500);
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        assertFalse("Only one trial at a time", breaker.allowRequest());
+
+        breaker.recordSuccess();
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void failedTrialReopens() {
+        fail(3);
+        now.addAndGet(500);
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+        now.addAndGet(500);
+        assertTrue("A new trial after another period", breaker.allowRequest());
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+        }
+    }
+
+}
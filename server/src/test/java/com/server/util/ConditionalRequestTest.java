@@ -0,0 +1,27 @@
+package com.server.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConditionalRequestTest {
+
+    @Test
+    public void ifNoneMatchUsesWeakComparison() {
+        assertTrue(ConditionalRequest.matches("\"abc-1\"", "abc-1"));
+        assertTrue(ConditionalRequest.matches("W/\"abc-1\"", "abc-1"));
+        assertTrue(ConditionalRequest.matches("\"abc-0\", \"abc-1\"", "abc-1"));
+        assertTrue(ConditionalRequest.matches("*", "abc-1"));
+        assertFalse(ConditionalRequest.matches("\"abc-10\"", "abc-1"));
+        assertFalse(ConditionalRequest.matches("abc-1", "abc-1"));
+    }
+
+    @Test
+    public void httpDatesAreParsed() {
+        assertEquals(784111777000L, ConditionalRequest.parseHttpDate("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(-1, ConditionalRequest.parseHttpDate("yesterday"));
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.server.util;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class RequestUtilTest {
+
+    @Test
+    public void bodiesWithinTheLimitAreParsed() throws IOException {
+        String body = "{\"nickname\": \"a\",\n \"latitude\": 65.0}\n";
+        JSONObject json = RequestUtil.readJsonObject(RequestUtil.limit(stream(body), body.length()));
+        assertEquals("a", json.getString("nickname"));
+        assertEquals(65.0, json.getDouble("latitude"), 0);
+    }
+
+    @Test(expected = RequestTooLargeException.class)
+    public void oversizedBodiesAreRejected() throws IOException {
+        String body = "{\"nickname\": \"" + "a".repeat(1000) + "\"}";
+        RequestUtil.readJsonObject(RequestUtil.limit(stream(body), 100));
+    }
+
+    @Test(expected = JSONException.class)
+    public void trailingContentIsRejected() throws IOException {
+        RequestUtil.readJsonObject(stream("{\"nickname\": \"a\"} {}"));
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
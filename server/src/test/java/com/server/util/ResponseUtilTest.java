@@ -0,0 +1,49 @@
+package com.server.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResponseUtilTest {
+
+    @Test
+    public void encodingIsNegotiated() {
+        assertEquals("gzip", ResponseUtil.preferredEncoding("gzip, deflate, br"));
+        assertEquals("gzip", ResponseUtil.preferredEncoding("x-gzip"));
+        assertEquals("deflate", ResponseUtil.preferredEncoding("gzip;q=0.5, deflate"));
+        assertEquals("deflate", ResponseUtil.preferredEncoding("gzip;q=0, *"));
+        assertEquals("gzip", ResponseUtil.preferredEncoding("*"));
+        assertNull(ResponseUtil.preferredEncoding("br, identity"));
+        assertNull(ResponseUtil.preferredEncoding("*;q=0"));
+        assertNull(ResponseUtil.preferredEncoding(null));
+    }
+
+    @Test
+    public void compressorsRoundTrip() throws IOException {
+        byte[] json = "[{\"id\":1,\"dangertype\":\"Moose\"},{\"id\":2,\"dangertype\":\"Moose\"}]".repeat(50).getBytes(StandardCharsets.UTF_8);
+        assertEquals(new String(json, StandardCharsets.UTF_8), roundTrip(json, "gzip"));
+        assertEquals(new String(json, StandardCharsets.UTF_8), roundTrip(json, "deflate"));
+    }
+
+    private static String roundTrip(byte[] bytes, String encoding) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = CompressingResponseStream.compressor(compressed, encoding, 1)) {
+            out.write(bytes);
+        }
+        ByteArrayInputStream in = new ByteArrayInputStream(compressed.toByteArray());
+        try (InputStream decompressed = "gzip".equals(encoding) ? new GZIPInputStream(in) : new InflaterInputStream(in)) {
+            return new String(decompressed.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.server.util;
+
+import org.junit.Test;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TimeUtilTest {
+
+    // The conversions as they were before the fast path
+    private static final DateTimeFormatter REFERENCE = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSX");
+
+    @Test
+    public void formatsLikeFormatter() {
+        long[] edges = {0, -1, 1, 951_782_400_000L, 951_868_799_999L, 4_102_444_800_000L, -62_135_596_800_000L,
+                -62_135_596_800_001L, 253_402_300_799_999L, 253_402_300_800_000L, Long.MAX_VALUE / 1000, Long.MIN_VALUE / 1000};
+        for (long epochMs : edges) {
+            assertFormat(epochMs);
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            assertFormat(random.nextLong() % 300_000_000_000_000L);
+        }
+    }
+
+    @Test
+    public void parsesLikeFormatter() {
+        Random random = new Random(2);
+        for (int i = 0; i < 100_000; i++) {
+            String date = Instant.ofEpochMilli(random.nextLong() % 253_402_300_800_000L).atZone(ZoneOffset.UTC).format(REFERENCE);
+            assertParse(date);
+        }
+        String[] edges = {"1970-01-01T00:00:00.000Z", "2000-02-29T23:59:59.999Z", "0001-01-01T00:00:00.000Z",
+                "9999-12-31T23:59:59.999Z", "2023-02-29T12:00:00.000Z", "2023-04-31T12:00:00.000Z",
+                "2024-01-22T13:45:12.345+02", "2024-01-22T13:45:12.345+0530", "2024-01-22T24:00:00.000Z"};
+        for (String date : edges) {
+            assertParse(date);
+        }
+    }
+
+    @Test
+    public void rejectsInvalidDates() {
+        String[] invalid = {"", "2024-01-22", "2024-01-22T13:45:12Z", "2024-13-22T13:45:12.345Z",
+                "2024-01-22T13:60:12.345Z", "2024-01-22 13:45:12.345Z", "2024-01-22T13:45:12.34aZ", "0000-01-01T00:00:00.000Z"};
+        for (String date : invalid) {
+            try {
+                long epochMs = TimeUtil.dateStringToEpochMilli(date);
+                fail("Expected " + date + " to be rejected, was parsed as " + epochMs);
+            } catch (DateTimeException e) {
+                // Expected
+            }
+        }
+    }
+
+    private static void assertFormat(long epochMs) {
+        String expected = Instant.ofEpochMilli(epochMs).atZone(ZoneOffset.UTC).format(REFERENCE);
+        assertEquals(expected, TimeUtil.epochMilliToDateString(epochMs));
+    }
+
+    private static void assertParse(String date) {
+        long expected = ZonedDateTime.parse(date, REFERENCE).toInstant().toEpochMilli();
+        assertEquals(date, expected, TimeUtil.dateStringToEpochMilli(date));
+    }
+
+}
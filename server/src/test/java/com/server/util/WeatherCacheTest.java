@@ -0,0 +1,71 @@
+package com.server.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WeatherCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1000);
+    private final List<CompletableFuture<String>> fetches = new ArrayList<>();
+    private final WeatherCache cache = new WeatherCache(2, 1000, 2, (latitude, longitude) -> {
+        CompletableFuture<String> fetch = new CompletableFuture<>();
+        fetches.add(fetch);
+        return fetch;
+    }, now::get);
+
+    @Test
+    public void lookupsInTheSameCellShareOneFetch() {
+        CompletableFuture<String> first = cache.get(65.011, 25.471);
+        CompletableFuture<String> second = cache.get(65.012, 25.469);
+        assertEquals(1, fetches.size());
+        assertSame(first, second);
+
+        fetches.get(0).complete("-5 Celsius");
+        assertEquals("-5 Celsius", cache.get(65.01, 25.47).join());
+        assertEquals(1, fetches.size());
+
+        cache.get(65.02, 25.47);
+        assertEquals("Another cell", 2, fetches.size());
+    }
+
+    @Test
+    public void failuresAndExpiredEntriesAreFetchedAgain() {
+        CompletableFuture<String> failed = cache.get(65, 25);
+        fetches.get(0).completeExceptionally(new IllegalStateException("unavailable"));
+        assertTrue(failed.isCompletedExceptionally());
+        assertNotSame(failed, cache.get(65, 25));
+        assertEquals(2, fetches.size());
+
+        fetches.get(1).complete("1 Celsius");
+        now.addAndGet(999);
+        assertEquals("1 Celsius", cache.get(65, 25).join());
+        now.addAndGet(1);
+        cache.get(65, 25);
+        assertEquals(3, fetches.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedCellIsEvicted() {
+        cache.get(60, 20);
+        cache.get(61, 21);
+        cache.get(60, 20);
+        cache.get(62, 22);
+        assertEquals(2, cache.size());
+        assertEquals(3, fetches.size());
+
+        cache.get(60, 20);
+        assertEquals("Recently used, so still cached", 3, fetches.size());
+        cache.get(61, 21);
+        assertEquals(4, fetches.size());
+    }
+
+}